@@ -0,0 +1,52 @@
+-- Backfill script for the dashboard daily rollups
+-- Description: Rebuild shipment_daily_rollups (day x shop x product x item type x return reason)
+-- from the raw shipment items. Same result as POST /api/reports/rollups/rebuild.
+
+BEGIN;
+
+CREATE TABLE IF NOT EXISTS shipment_daily_rollups (
+    id BIGSERIAL PRIMARY KEY,
+    rollup_key VARCHAR(100) NOT NULL CONSTRAINT uk_rollup_key UNIQUE,
+    rollup_date DATE NOT NULL,
+    shop_id BIGINT NOT NULL REFERENCES shops(id),
+    product_id BIGINT NOT NULL REFERENCES products(id),
+    item_type VARCHAR(255) NOT NULL,
+    return_reason VARCHAR(255),
+    quantity NUMERIC(14, 3) NOT NULL,
+    amount NUMERIC(14, 2) NOT NULL,
+    item_count BIGINT NOT NULL
+);
+
+CREATE INDEX IF NOT EXISTS idx_rollup_date_shop ON shipment_daily_rollups (rollup_date, shop_id);
+-- On a table created before rollup_key existed, run migrate_rollup_unique_key.sql first
+
+DELETE FROM shipment_daily_rollups;
+
+INSERT INTO shipment_daily_rollups (rollup_key, rollup_date, shop_id, product_id, item_type, return_reason, quantity, amount, item_count)
+SELECT
+    -- Same format as ShipmentDailyRollup.keyOf
+    to_char(s.shipment_date, 'YYYY-MM-DD') || '/' || s.shop_id || '/' || si.product_id || '/'
+        || si.item_type || '/' || COALESCE(si.return_reason, '-'),
+    s.shipment_date,
+    s.shop_id,
+    si.product_id,
+    si.item_type,
+    si.return_reason,
+    SUM(si.quantity),
+    SUM(si.total_price),
+    COUNT(*)
+FROM shipment_items si
+JOIN shipments s ON si.shipment_id = s.id
+GROUP BY s.shipment_date, s.shop_id, si.product_id, si.item_type, si.return_reason;
+
+-- The application takes rollup ids from this sequence (see migrate_shipment_id_sequences.sql):
+-- move it past the ids just inserted
+CREATE SEQUENCE IF NOT EXISTS shipment_daily_rollup_seq INCREMENT BY 50;
+SELECT setval('shipment_daily_rollup_seq', (SELECT COALESCE(MAX(id), 0) + 50 FROM shipment_daily_rollups), false);
+
+COMMIT;
+
+-- Verify
+SELECT item_type, SUM(amount) AS amount, SUM(item_count) AS items
+FROM shipment_daily_rollups
+GROUP BY item_type;
@@ -0,0 +1,43 @@
+-- Backfill script for the denormalized shipment totals
+-- Description: Add shipment_total, shipment_item_count, return_total and return_item_count
+-- to shipments and fill them from the existing shipment items.
+-- Also run it after loading data inserted directly into shipment_items (e.g. generated_data.sql).
+
+BEGIN;
+
+ALTER TABLE shipments ADD COLUMN IF NOT EXISTS shipment_total NUMERIC(14, 2);
+ALTER TABLE shipments ADD COLUMN IF NOT EXISTS shipment_item_count INTEGER;
+ALTER TABLE shipments ADD COLUMN IF NOT EXISTS return_total NUMERIC(14, 2);
+ALTER TABLE shipments ADD COLUMN IF NOT EXISTS return_item_count INTEGER;
+
+UPDATE shipments s
+SET shipment_total = COALESCE(t.shipment_total, 0),
+    shipment_item_count = COALESCE(t.shipment_item_count, 0),
+    return_total = COALESCE(t.return_total, 0),
+    return_item_count = COALESCE(t.return_item_count, 0)
+FROM shipments s2
+LEFT JOIN (
+    SELECT
+        si.shipment_id,
+        SUM(CASE WHEN si.item_type = 'SHIPMENT' THEN si.total_price END) AS shipment_total,
+        COUNT(CASE WHEN si.item_type = 'SHIPMENT' THEN 1 END) AS shipment_item_count,
+        SUM(CASE WHEN si.item_type = 'RETURN' THEN si.total_price END) AS return_total,
+        COUNT(CASE WHEN si.item_type = 'RETURN' THEN 1 END) AS return_item_count
+    FROM shipment_items si
+    GROUP BY si.shipment_id
+) t ON t.shipment_id = s2.id
+WHERE s.id = s2.id;
+
+ALTER TABLE shipments ALTER COLUMN shipment_total SET DEFAULT 0;
+ALTER TABLE shipments ALTER COLUMN shipment_item_count SET DEFAULT 0;
+ALTER TABLE shipments ALTER COLUMN return_total SET DEFAULT 0;
+ALTER TABLE shipments ALTER COLUMN return_item_count SET DEFAULT 0;
+
+COMMIT;
+
+-- Verify (should return no rows)
+SELECT s.id, s.shipment_total, SUM(si.total_price) AS items_total
+FROM shipments s
+JOIN shipment_items si ON si.shipment_id = s.id AND si.item_type = 'SHIPMENT'
+GROUP BY s.id, s.shipment_total
+HAVING s.shipment_total <> SUM(si.total_price);
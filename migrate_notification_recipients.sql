@@ -0,0 +1,40 @@
+-- Migration script for per-recipient WhatsApp notifications
+-- Date: 2026-10-18
+-- Description: Add recipient (SHOP or DRIVER) to shipment_notifications. A WhatsApp notification now has
+-- one record per recipient, so a retry no longer sends the message again to the one already reached.
+-- Existing records become the shop's; unsent WhatsApp records get a copy for the driver when the
+-- shipment's driver has a WhatsApp number. Run it before starting the new version.
+
+BEGIN;
+
+-- Step 1: Add the column, existing records are for the shop
+ALTER TABLE shipment_notifications ADD COLUMN IF NOT EXISTS recipient VARCHAR(255);
+
+UPDATE shipment_notifications SET recipient = 'SHOP' WHERE recipient IS NULL;
+
+ALTER TABLE shipment_notifications ALTER COLUMN recipient SET NOT NULL;
+
+-- Step 2: Give the driver a record of their own for WhatsApp messages not sent yet
+INSERT INTO shipment_notifications (shipment_id, channel, recipient, status, attempts, last_error,
+                                    created_at, next_attempt_at, claimed_at, sent_at, digest_shop_id)
+SELECT n.shipment_id, n.channel, 'DRIVER', n.status, n.attempts, n.last_error,
+       n.created_at, n.next_attempt_at, n.claimed_at, NULL, NULL
+FROM shipment_notifications n
+JOIN shipments s ON s.id = n.shipment_id
+JOIN users d ON d.id = s.driver_id
+WHERE n.channel = 'WHATSAPP'
+  AND n.recipient = 'SHOP'
+  AND n.status <> 'SENT'
+  AND d.whatsapp_number IS NOT NULL AND d.whatsapp_number <> ''
+  AND NOT EXISTS (
+      SELECT 1 FROM shipment_notifications o
+      WHERE o.shipment_id = n.shipment_id AND o.channel = 'WHATSAPP' AND o.recipient = 'DRIVER'
+  );
+
+COMMIT;
+
+-- Verify
+SELECT channel, recipient, status, COUNT(*)
+FROM shipment_notifications
+GROUP BY channel, recipient, status
+ORDER BY channel, recipient, status;
@@ -0,0 +1,17 @@
+-- Migration script for the notification retries
+-- Description: Add next_attempt_at to shipment_notifications (the time before which a PENDING
+-- notification is not sent) and index it with the status. Run it before starting the new
+-- version on a database that already has notification records.
+
+BEGIN;
+
+ALTER TABLE shipment_notifications ADD COLUMN IF NOT EXISTS next_attempt_at TIMESTAMP;
+
+UPDATE shipment_notifications SET next_attempt_at = created_at WHERE next_attempt_at IS NULL;
+
+ALTER TABLE shipment_notifications ALTER COLUMN next_attempt_at SET NOT NULL;
+
+DROP INDEX IF EXISTS idx_notification_status_id;
+CREATE INDEX IF NOT EXISTS idx_notification_status_next ON shipment_notifications (status, next_attempt_at);
+
+COMMIT;
@@ -0,0 +1,50 @@
+-- Migration script for the unique dashboard rollup key
+-- Date: 2026-10-18
+-- Description: Add rollup_key to shipment_daily_rollups (day/shop/product/item type/return reason in one
+-- non-null value, see ShipmentDailyRollup.keyOf) and make it unique, so concurrent shipment changes can no
+-- longer create two rows for the same key. Rows already duplicated are merged into the oldest one.
+-- Run BEFORE deploying the new version. The totals of merged rows may already be off because of the lost
+-- updates the old code allowed: run backfill_shipment_daily_rollups.sql afterwards to recompute them exactly.
+
+BEGIN;
+
+-- Step 1: Add and fill the key (same format as ShipmentDailyRollup.keyOf)
+ALTER TABLE shipment_daily_rollups ADD COLUMN IF NOT EXISTS rollup_key VARCHAR(100);
+
+UPDATE shipment_daily_rollups
+SET rollup_key = to_char(rollup_date, 'YYYY-MM-DD') || '/' || shop_id || '/' || product_id || '/'
+    || item_type || '/' || COALESCE(return_reason, '-')
+WHERE rollup_key IS NULL;
+
+-- Step 2: Merge duplicate rows into the one with the lowest id
+UPDATE shipment_daily_rollups r
+SET quantity = d.quantity, amount = d.amount, item_count = d.item_count
+FROM (
+    SELECT MIN(id) AS id, SUM(quantity) AS quantity, SUM(amount) AS amount, SUM(item_count) AS item_count
+    FROM shipment_daily_rollups
+    GROUP BY rollup_key
+    HAVING COUNT(*) > 1
+) d
+WHERE r.id = d.id;
+
+DELETE FROM shipment_daily_rollups r
+USING (
+    SELECT rollup_key, MIN(id) AS keep_id
+    FROM shipment_daily_rollups
+    GROUP BY rollup_key
+    HAVING COUNT(*) > 1
+) d
+WHERE r.rollup_key = d.rollup_key AND r.id <> d.keep_id;
+
+-- Step 3: Enforce it
+ALTER TABLE shipment_daily_rollups ALTER COLUMN rollup_key SET NOT NULL;
+ALTER TABLE shipment_daily_rollups DROP CONSTRAINT IF EXISTS uk_rollup_key;
+ALTER TABLE shipment_daily_rollups ADD CONSTRAINT uk_rollup_key UNIQUE (rollup_key);
+
+COMMIT;
+
+-- Verify (expected: no rows)
+SELECT rollup_key, COUNT(*)
+FROM shipment_daily_rollups
+GROUP BY rollup_key
+HAVING COUNT(*) > 1;
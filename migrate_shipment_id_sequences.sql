@@ -0,0 +1,27 @@
+-- Migration script for sequence-based shipment ids
+-- Date: 2026-10-18
+-- Description: Shipment, ShipmentItem and ShipmentDailyRollup ids now come from pooled sequences (allocation size 50)
+-- instead of identity columns, so Hibernate can batch their inserts.
+-- Run BEFORE deploying the new version, and again after loading data with explicit ids (e.g. generated_data.sql).
+
+BEGIN;
+
+-- Step 1: Create the sequences (increment must match allocationSize in the entities)
+CREATE SEQUENCE IF NOT EXISTS shipment_seq INCREMENT BY 50;
+CREATE SEQUENCE IF NOT EXISTS shipment_item_seq INCREMENT BY 50;
+CREATE SEQUENCE IF NOT EXISTS shipment_daily_rollup_seq INCREMENT BY 50;
+
+-- Step 2: Position them after the existing ids
+-- The pooled optimizer hands out (value - 49) .. value, so the next value must be MAX(id) + 50
+SELECT setval('shipment_seq', (SELECT COALESCE(MAX(id), 0) + 50 FROM shipments), false);
+SELECT setval('shipment_item_seq', (SELECT COALESCE(MAX(id), 0) + 50 FROM shipment_items), false);
+SELECT setval('shipment_daily_rollup_seq', (SELECT COALESCE(MAX(id), 0) + 50 FROM shipment_daily_rollups), false);
+
+COMMIT;
+
+-- Verify
+SELECT 'shipments' AS table_name, (SELECT MAX(id) FROM shipments) AS max_id, last_value FROM shipment_seq
+UNION ALL
+SELECT 'shipment_items', (SELECT MAX(id) FROM shipment_items), last_value FROM shipment_item_seq
+UNION ALL
+SELECT 'shipment_daily_rollups', (SELECT MAX(id) FROM shipment_daily_rollups), last_value FROM shipment_daily_rollup_seq;
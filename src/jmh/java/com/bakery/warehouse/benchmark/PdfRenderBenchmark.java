@@ -0,0 +1,97 @@
+package com.bakery.warehouse.benchmark;
+
+import com.bakery.warehouse.entity.Product;
+import com.bakery.warehouse.entity.Shipment;
+import com.bakery.warehouse.entity.ShipmentItem;
+import com.bakery.warehouse.entity.Shop;
+import com.bakery.warehouse.entity.User;
+import com.bakery.warehouse.service.PDFService;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+import java.time.LocalDate;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Renders/sec of a single DDT for shipments of different sizes.
+ * Run with the gc profiler (the profile default) to also get the allocation per render (gc.alloc.rate.norm).
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class PdfRenderBenchmark {
+
+    @Param({"5", "50", "500"})
+    private int lines;
+
+    private final PDFService pdfService = new PDFService();
+    private final ByteArrayOutputStream out = new ByteArrayOutputStream(256 * 1024);
+    private Shipment shipment;
+
+    @Setup
+    public void setUp() {
+        Shop shop = new Shop();
+        shop.setId(1L);
+        shop.setName("Panificio Centrale");
+        shop.setAddress("Via Roma 1");
+        shop.setCity("Milano");
+
+        User driver = new User();
+        driver.setId(2L);
+        driver.setFullName("Mario Rossi");
+
+        shipment = new Shipment();
+        shipment.setId(1L);
+        shipment.setShipmentNumber("SHP-20260101-00001");
+        shipment.setShipmentDate(LocalDate.of(2026, 1, 1));
+        shipment.setShop(shop);
+        shipment.setDriver(driver);
+        shipment.setNotes("Consegna entro le 7:00");
+
+        for (int i = 0; i < lines; i++) {
+            Product product = new Product();
+            product.setId((long) i);
+            product.setCode("P" + i);
+            product.setName("Prodotto da forno " + i);
+            product.setUnit("kg");
+            product.setUnitPrice(BigDecimal.valueOf(150 + i, 2));
+
+            ShipmentItem item = new ShipmentItem();
+            item.setShipment(shipment);
+            item.setProduct(product);
+            item.setQuantity(BigDecimal.valueOf(1 + i % 10));
+            item.setUnitPrice(product.getUnitPrice());
+            item.setTotalPrice(item.getQuantity().multiply(item.getUnitPrice()).setScale(2, RoundingMode.HALF_UP));
+            // One line in ten is a return, so both tables are rendered
+            if (i % 10 == 9) {
+                item.setItemType(ShipmentItem.ItemType.RETURN);
+                item.setReturnReason(ShipmentItem.ReturnReason.DAMAGED);
+            }
+            shipment.getItems().add(item);
+        }
+        shipment.recalculateTotals();
+    }
+
+    @Benchmark
+    public int render() throws IOException {
+        out.reset();
+        pdfService.writeShipmentPdf(shipment, out);
+        return out.size();
+    }
+}
@@ -4,13 +4,14 @@ import com.bakery.warehouse.dto.LoginRequest;
 import com.bakery.warehouse.dto.LoginResponse;
 import com.bakery.warehouse.entity.User;
 import com.bakery.warehouse.repository.UserRepository;
+import com.bakery.warehouse.security.AuthenticatedUser;
+import com.bakery.warehouse.security.CurrentUser;
 import com.bakery.warehouse.security.JwtTokenProvider;
 import lombok.RequiredArgsConstructor;
 import org.springframework.http.ResponseEntity;
 import org.springframework.security.authentication.AuthenticationManager;
 import org.springframework.security.authentication.UsernamePasswordAuthenticationToken;
 import org.springframework.security.core.Authentication;
-import org.springframework.security.core.annotation.AuthenticationPrincipal;
 import org.springframework.security.core.context.SecurityContextHolder;
 import org.springframework.security.crypto.password.PasswordEncoder;
 import org.springframework.web.bind.annotation.*;
@@ -68,8 +69,8 @@ public class AuthController {
     }
 
     @GetMapping("/me")
-    public ResponseEntity<LoginResponse> getCurrentUser(@AuthenticationPrincipal Authentication authentication) {
-        User user = userRepository.findByUsername(authentication.getName())
+    public ResponseEntity<LoginResponse> getCurrentUser(@CurrentUser AuthenticatedUser currentUser) {
+        User user = userRepository.findById(currentUser.getId())
                 .orElseThrow(() -> new RuntimeException("User not found"));
 
         LoginResponse response = new LoginResponse();
@@ -0,0 +1,67 @@
+package com.bakery.warehouse.controller;
+
+import com.bakery.warehouse.entity.ShipmentNotification;
+import com.bakery.warehouse.service.EmailService;
+import com.bakery.warehouse.service.NotificationDispatcher;
+import com.bakery.warehouse.service.WhatsAppService;
+import lombok.RequiredArgsConstructor;
+import org.springframework.http.ResponseEntity;
+import org.springframework.security.access.prepost.PreAuthorize;
+import org.springframework.web.bind.annotation.*;
+
+import java.util.List;
+import java.util.Map;
+
+@RestController
+@RequestMapping("/api/notifications")
+@RequiredArgsConstructor
+@PreAuthorize("hasRole('ADMIN')")
+public class NotificationController {
+
+    private final NotificationDispatcher notificationDispatcher;
+    private final EmailService emailService;
+    private final WhatsAppService whatsAppService;
+
+    /**
+     * Outbox records by status and the current load of each channel
+     */
+    @GetMapping("/status")
+    public ResponseEntity<Map<String, Object>> getStatus() {
+        return ResponseEntity.ok(notificationDispatcher.getStatus());
+    }
+
+    /**
+     * SMTP send times and connection reuse since startup
+     */
+    @GetMapping("/smtp/stats")
+    public ResponseEntity<Map<String, Object>> getSmtpStats() {
+        return ResponseEntity.ok(emailService.getSmtpStats());
+    }
+
+    /**
+     * WhatsApp send times, retries and rate limiting since startup
+     */
+    @GetMapping("/whatsapp/stats")
+    public ResponseEntity<Map<String, Object>> getWhatsAppStats() {
+        return ResponseEntity.ok(whatsAppService.stats());
+    }
+
+    /**
+     * Notifications that failed every attempt (dead letters), most recent first
+     */
+    @GetMapping("/failed")
+    public ResponseEntity<List<ShipmentNotification>> getFailed(
+            @RequestParam(defaultValue = "0") int page,
+            @RequestParam(defaultValue = "50") int size) {
+        return ResponseEntity.ok(notificationDispatcher.getFailed(page, Math.min(size, 500)));
+    }
+
+    @PostMapping("/{id}/retry")
+    public ResponseEntity<ShipmentNotification> retry(@PathVariable Long id) {
+        try {
+            return ResponseEntity.ok(notificationDispatcher.retry(id));
+        } catch (RuntimeException e) {
+            return ResponseEntity.notFound().build();
+        }
+    }
+}
@@ -2,6 +2,7 @@ package com.bakery.warehouse.controller;
 
 import com.bakery.warehouse.entity.Product;
 import com.bakery.warehouse.repository.ProductRepository;
+import com.bakery.warehouse.service.CatalogCache;
 import lombok.RequiredArgsConstructor;
 import org.springframework.http.ResponseEntity;
 import org.springframework.security.access.prepost.PreAuthorize;
@@ -15,23 +16,24 @@ import java.util.List;
 public class ProductController {
 
     private final ProductRepository productRepository;
+    private final CatalogCache catalogCache;
 
     @GetMapping
     public ResponseEntity<List<Product>> getAllProducts() {
-        return ResponseEntity.ok(productRepository.findByActiveTrue());
+        return ResponseEntity.ok(catalogCache.getActiveProducts());
     }
 
     @GetMapping("/{id}")
     public ResponseEntity<Product> getProduct(@PathVariable Long id) {
-        return productRepository.findById(id)
-                .map(ResponseEntity::ok)
-                .orElse(ResponseEntity.notFound().build());
+        Product product = catalogCache.findProduct(id);
+        return product != null ? ResponseEntity.ok(product) : ResponseEntity.notFound().build();
     }
 
     @PostMapping
     @PreAuthorize("hasRole('ADMIN')")
     public ResponseEntity<Product> createProduct(@RequestBody Product product) {
         Product saved = productRepository.save(product);
+        catalogCache.refreshProducts();
         return ResponseEntity.ok(saved);
     }
 
@@ -43,6 +45,7 @@ public class ProductController {
         }
         product.setId(id);
         Product updated = productRepository.save(product);
+        catalogCache.refreshProducts();
         return ResponseEntity.ok(updated);
     }
 
@@ -50,6 +53,7 @@ public class ProductController {
     @PreAuthorize("hasRole('ADMIN')")
     public ResponseEntity<Void> deleteProduct(@PathVariable Long id) {
         productRepository.deleteById(id);
+        catalogCache.refreshProducts();
         return ResponseEntity.noContent().build();
     }
 }
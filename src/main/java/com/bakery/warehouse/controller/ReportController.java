@@ -2,17 +2,14 @@ package com.bakery.warehouse.controller;
 
 import com.bakery.warehouse.dto.ReportDashboardResponse;
 import com.bakery.warehouse.entity.Shipment;
-import com.bakery.warehouse.entity.ShipmentItem;
-import com.bakery.warehouse.entity.User;
-import com.bakery.warehouse.repository.UserRepository;
+import com.bakery.warehouse.security.AuthenticatedUser;
+import com.bakery.warehouse.security.CurrentUser;
 import com.bakery.warehouse.service.ReportService;
 import com.bakery.warehouse.service.ShipmentService;
 import lombok.RequiredArgsConstructor;
 import org.springframework.format.annotation.DateTimeFormat;
 import org.springframework.http.ResponseEntity;
 import org.springframework.security.access.prepost.PreAuthorize;
-import org.springframework.security.core.annotation.AuthenticationPrincipal;
-import org.springframework.security.core.userdetails.UserDetails;
 import org.springframework.web.bind.annotation.*;
 
 import java.math.BigDecimal;
@@ -30,7 +27,6 @@ public class ReportController {
 
     private final ShipmentService shipmentService;
     private final ReportService reportService;
-    private final UserRepository userRepository;
 
     /**
      * Enhanced dashboard endpoint with comprehensive aggregates, product-level data, and chart data
@@ -43,7 +39,7 @@ public class ReportController {
             @RequestParam(required = false) Long driverId,
             @RequestParam(required = false) List<String> statuses,
             @RequestParam(required = false, defaultValue = "MONTHLY") String chartGroupBy,
-            @AuthenticationPrincipal UserDetails userDetails) {
+            @CurrentUser AuthenticatedUser currentUser) {
 
         // Default date range to current month if not specified
         if (startDate == null) {
@@ -53,14 +49,8 @@ public class ReportController {
             endDate = LocalDate.now();
         }
 
-        User currentUser = userRepository.findByUsername(userDetails.getUsername())
-                .orElseThrow(() -> new RuntimeException("User not found"));
-
         // Force filter by shop for SHOP role users
-        Long effectiveShopId = shopId;
-        if (currentUser.getRole() == User.UserRole.SHOP && currentUser.getShop() != null) {
-            effectiveShopId = currentUser.getShop().getId();
-        }
+        Long effectiveShopId = currentUser.scopeShopId(shopId);
 
         // Parse status filters
         List<Shipment.ShipmentStatus> statusFilters = null;
@@ -83,6 +73,28 @@ public class ReportController {
         return ResponseEntity.ok(response);
     }
 
+    /**
+     * Rebuild the daily rollups used by the dashboard from the raw shipment items
+     */
+    @PostMapping("/rollups/rebuild")
+    @PreAuthorize("hasRole('ADMIN')")
+    public ResponseEntity<Map<String, Object>> rebuildRollups() {
+        int rows = reportService.rebuildRollups();
+
+        Map<String, Object> result = new HashMap<>();
+        result.put("rollupRows", rows);
+        return ResponseEntity.ok(result);
+    }
+
+    /**
+     * Dashboard cache statistics (hits, misses, evictions, invalidations)
+     */
+    @GetMapping("/cache/stats")
+    @PreAuthorize("hasRole('ADMIN')")
+    public ResponseEntity<Map<String, Object>> getCacheStats() {
+        return ResponseEntity.ok(reportService.getCacheStats());
+    }
+
     /**
      * Legacy dashboard endpoint (kept for backward compatibility)
      */
@@ -90,7 +102,7 @@ public class ReportController {
     public ResponseEntity<Map<String, Object>> getDashboardStatsLegacy(
             @RequestParam(required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE) LocalDate startDate,
             @RequestParam(required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE) LocalDate endDate,
-            @AuthenticationPrincipal UserDetails userDetails) {
+            @CurrentUser AuthenticatedUser currentUser) {
 
         if (startDate == null) {
             startDate = LocalDate.now().withDayOfMonth(1);
@@ -99,14 +111,11 @@ public class ReportController {
             endDate = LocalDate.now();
         }
 
-        User currentUser = userRepository.findByUsername(userDetails.getUsername())
-                .orElseThrow(() -> new RuntimeException("User not found"));
-
         List<Shipment> shipments = shipmentService.getShipmentsByDateRange(startDate, endDate);
 
         // Filter by shop for SHOP role users
-        if (currentUser.getRole() == User.UserRole.SHOP && currentUser.getShop() != null) {
-            Long shopId = currentUser.getShop().getId();
+        Long shopId = currentUser.scopeShopId(null);
+        if (shopId != null) {
             shipments = shipments.stream()
                     .filter(s -> s.getShop() != null && s.getShop().getId().equals(shopId))
                     .toList();
@@ -128,15 +137,11 @@ public class ReportController {
 
         // Calculate shipment value (only SHIPMENT items)
         BigDecimal totalShipmentsValue = shipments.stream()
-                .flatMap(s -> s.getItems().stream())
-                .filter(item -> item.getItemType() == ShipmentItem.ItemType.SHIPMENT)
-                .map(item -> item.getTotalPrice() != null ? item.getTotalPrice() : BigDecimal.ZERO)
+                .map(s -> s.getShipmentTotal() != null ? s.getShipmentTotal() : BigDecimal.ZERO)
                 .reduce(BigDecimal.ZERO, BigDecimal::add);
-        // Calculate shipment value (only SHIPMENT items)
+        // Calculate returns value (only RETURN items)
         BigDecimal totalReturnsValue = shipments.stream()
-                .flatMap(s -> s.getItems().stream())
-                .filter(item -> item.getItemType() == ShipmentItem.ItemType.RETURN)
-                .map(item -> item.getTotalPrice() != null ? item.getTotalPrice() : BigDecimal.ZERO)
+                .map(s -> s.getReturnTotal() != null ? s.getReturnTotal() : BigDecimal.ZERO)
                 .reduce(BigDecimal.ZERO, BigDecimal::add);
 
         stats.put("totalShipments", totalShipments);
@@ -151,8 +156,7 @@ public class ReportController {
                 .count();
 
         long shipmentsWithReturns = shipments.stream()
-                .filter(s -> s.getItems().stream()
-                        .anyMatch(item -> item.getItemType() == ShipmentItem.ItemType.RETURN))
+                .filter(s -> s.getReturnItemCount() != null && s.getReturnItemCount() > 0)
                 .count();
 
 
@@ -181,7 +185,7 @@ public class ReportController {
             @RequestParam(required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE) LocalDate endDate,
             @RequestParam(required = false) Long shopId,
             @RequestParam(required = false) Long driverId,
-            @AuthenticationPrincipal UserDetails userDetails) {
+            @CurrentUser AuthenticatedUser currentUser) {
 
         if (startDate == null) {
             startDate = LocalDate.now().withDayOfMonth(1);
@@ -190,16 +194,10 @@ public class ReportController {
             endDate = LocalDate.now();
         }
 
-        User currentUser = userRepository.findByUsername(userDetails.getUsername())
-                .orElseThrow(() -> new RuntimeException("User not found"));
-
         List<Shipment> shipments = shipmentService.getShipmentsByDateRange(startDate, endDate);
 
         // Force filter by shop for SHOP role users
-        Long finalShopId = shopId;
-        if (currentUser.getRole() == User.UserRole.SHOP && currentUser.getShop() != null) {
-            finalShopId = currentUser.getShop().getId();
-        }
+        Long finalShopId = currentUser.scopeShopId(shopId);
 
         // Filter by shop if specified
         if (finalShopId != null) {
@@ -224,8 +222,8 @@ public class ReportController {
         report.put("driverId", driverId);
 
         BigDecimal totalValue = shipments.stream()
-                .flatMap(s -> s.getItems().stream())
-                .map(item -> item.getTotalPrice() != null ? item.getTotalPrice() : BigDecimal.ZERO)
+                .map(s -> (s.getShipmentTotal() != null ? s.getShipmentTotal() : BigDecimal.ZERO)
+                        .add(s.getReturnTotal() != null ? s.getReturnTotal() : BigDecimal.ZERO))
                 .reduce(BigDecimal.ZERO, BigDecimal::add);
         report.put("totalValue", totalValue);
         report.put("totalCount", shipments.size());
@@ -238,7 +236,7 @@ public class ReportController {
             @RequestParam(required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE) LocalDate startDate,
             @RequestParam(required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE) LocalDate endDate,
             @RequestParam(required = false) Long shopId,
-            @AuthenticationPrincipal UserDetails userDetails) {
+            @CurrentUser AuthenticatedUser currentUser) {
 
         if (startDate == null) {
             startDate = LocalDate.now().withDayOfMonth(1);
@@ -247,16 +245,10 @@ public class ReportController {
             endDate = LocalDate.now();
         }
 
-        User currentUser = userRepository.findByUsername(userDetails.getUsername())
-                .orElseThrow(() -> new RuntimeException("User not found"));
-
         List<Shipment> shipments = shipmentService.getShipmentsByDateRange(startDate, endDate);
 
         // Force filter by shop for SHOP role users
-        Long finalShopId = shopId;
-        if (currentUser.getRole() == User.UserRole.SHOP && currentUser.getShop() != null) {
-            finalShopId = currentUser.getShop().getId();
-        }
+        Long finalShopId = currentUser.scopeShopId(shopId);
 
         // Filter by shop if specified
         if (finalShopId != null) {
@@ -268,8 +260,7 @@ public class ReportController {
 
         // Filter only shipments that have return items
         List<Shipment> shipmentsWithReturns = shipments.stream()
-                .filter(s -> s.getItems().stream()
-                        .anyMatch(item -> item.getItemType() == ShipmentItem.ItemType.RETURN))
+                .filter(s -> s.getReturnItemCount() != null && s.getReturnItemCount() > 0)
                 .toList();
 
         Map<String, Object> report = new HashMap<>();
@@ -280,16 +271,13 @@ public class ReportController {
 
         // Calculate total return items value
         BigDecimal totalValue = shipmentsWithReturns.stream()
-                .flatMap(s -> s.getItems().stream())
-                .filter(item -> item.getItemType() == ShipmentItem.ItemType.RETURN)
-                .map(item -> item.getTotalPrice() != null ? item.getTotalPrice() : BigDecimal.ZERO)
+                .map(Shipment::getReturnTotal)
                 .reduce(BigDecimal.ZERO, BigDecimal::add);
 
         // Count total return items
         long totalReturnItems = shipmentsWithReturns.stream()
-                .flatMap(s -> s.getItems().stream())
-                .filter(item -> item.getItemType() == ShipmentItem.ItemType.RETURN)
-                .count();
+                .mapToLong(Shipment::getReturnItemCount)
+                .sum();
 
         report.put("totalValue", totalValue);
         report.put("totalCount", shipmentsWithReturns.size());
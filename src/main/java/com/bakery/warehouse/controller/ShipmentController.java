@@ -1,25 +1,33 @@
 package com.bakery.warehouse.controller;
 
+import com.bakery.warehouse.dto.ShipmentCursorPageResponse;
 import com.bakery.warehouse.dto.ShipmentPageResponse;
+import com.bakery.warehouse.dto.ShipmentPdfInfo;
 import com.bakery.warehouse.dto.ShipmentRequest;
+import com.bakery.warehouse.dto.ShipmentSummary;
 import com.bakery.warehouse.entity.*;
-import com.bakery.warehouse.repository.ProductRepository;
-import com.bakery.warehouse.repository.ShopRepository;
 import com.bakery.warehouse.repository.UserRepository;
+import com.bakery.warehouse.security.AuthenticatedUser;
+import com.bakery.warehouse.security.CurrentUser;
+import com.bakery.warehouse.service.CatalogCache;
+import com.bakery.warehouse.service.FileDownloadService;
+import com.bakery.warehouse.service.PdfArchiveService;
+import com.bakery.warehouse.service.PdfRenderService;
+import com.bakery.warehouse.service.PdfStorageService;
+import com.bakery.warehouse.service.ShipmentExportService;
 import com.bakery.warehouse.service.ShipmentService;
 import com.bakery.warehouse.service.WhatsAppService;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
 import lombok.RequiredArgsConstructor;
-import org.springframework.core.io.Resource;
-import org.springframework.core.io.UrlResource;
 import org.springframework.format.annotation.DateTimeFormat;
 import org.springframework.http.HttpHeaders;
 import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.security.access.prepost.PreAuthorize;
-import org.springframework.security.core.annotation.AuthenticationPrincipal;
-import org.springframework.security.core.userdetails.UserDetails;
 import org.springframework.web.bind.annotation.*;
 
+import java.io.IOException;
 import java.math.BigDecimal;
 import java.time.LocalDate;
 import java.util.ArrayList;
@@ -31,23 +39,26 @@ import java.util.stream.Collectors;
 @RequiredArgsConstructor
 public class ShipmentController {
 
+    private static final int DEFAULT_CURSOR_PAGE_SIZE = 20;
+    private static final int MAX_CURSOR_PAGE_SIZE = 500;
+
     private final ShipmentService shipmentService;
+    private final ShipmentExportService shipmentExportService;
+    private final PdfRenderService pdfRenderService;
+    private final FileDownloadService fileDownloadService;
+    private final PdfStorageService pdfStorageService;
+    private final PdfArchiveService pdfArchiveService;
     private final WhatsAppService whatsAppService;
-    private final ShopRepository shopRepository;
-    private final ProductRepository productRepository;
+    private final CatalogCache catalogCache;
     private final UserRepository userRepository;
 
     @PostMapping
     @PreAuthorize("hasAnyRole('ADMIN', 'ACCOUNTANT')")
     public ResponseEntity<Shipment> createShipment(
             @RequestBody ShipmentRequest request,
-            @AuthenticationPrincipal UserDetails userDetails) {
-
-        User currentUser = userRepository.findByUsername(userDetails.getUsername())
-                .orElseThrow(() -> new RuntimeException("User not found"));
+            @CurrentUser AuthenticatedUser currentUser) {
 
-        Shop shop = shopRepository.findById(request.getShopId())
-                .orElseThrow(() -> new RuntimeException("Shop not found"));
+        Shop shop = catalogCache.getShop(request.getShopId());
 
         Shipment shipment = new Shipment();
         shipment.setShop(shop);
@@ -62,8 +73,7 @@ public class ShipmentController {
 
         List<ShipmentItem> items = new ArrayList<>();
         for (ShipmentRequest.ShipmentItemRequest itemReq : request.getItems()) {
-            Product product = productRepository.findById(itemReq.getProductId())
-                    .orElseThrow(() -> new RuntimeException("Product not found"));
+            Product product = catalogCache.getProduct(itemReq.getProductId());
 
             ShipmentItem item = new ShipmentItem();
             item.setProduct(product);
@@ -75,7 +85,17 @@ public class ShipmentController {
 
         shipment.setItems(items);
 
-        Shipment created = shipmentService.createShipment(shipment, currentUser);
+        Shipment created = shipmentService.createShipment(shipment, userRepository.getReferenceById(currentUser.getId()));
+        return ResponseEntity.ok(created);
+    }
+
+    @PostMapping("/bulk")
+    @PreAuthorize("hasAnyRole('ADMIN', 'ACCOUNTANT')")
+    public ResponseEntity<List<Shipment>> createShipments(
+            @RequestBody List<ShipmentRequest> requests,
+            @CurrentUser AuthenticatedUser currentUser) {
+
+        List<Shipment> created = shipmentService.createShipments(requests, userRepository.getReferenceById(currentUser.getId()));
         return ResponseEntity.ok(created);
     }
 
@@ -122,28 +142,31 @@ public class ShipmentController {
             @RequestParam(required = false) List<String> statuses,
             @RequestParam(required = false) Integer page,
             @RequestParam(required = false) Integer size,
-            @AuthenticationPrincipal UserDetails userDetails) {
-
-        User currentUser = userRepository.findByUsername(userDetails.getUsername())
-                .orElseThrow(() -> new RuntimeException("User not found"));
+            @RequestParam(required = false) String cursor,
+            @RequestParam(required = false, defaultValue = "false") boolean includeTotals,
+            @RequestParam(required = false, defaultValue = "false") boolean detail,
+            @CurrentUser AuthenticatedUser currentUser) {
 
         // SHOP users can only see their own shop's shipments
-        Long effectiveShopId = shopId;
-        if (currentUser.getRole() == User.UserRole.SHOP) {
-            if (currentUser.getShop() == null) {
-                // Return empty response for shop users without shop assigned
-                if (page != null && size != null) {
-                    return ResponseEntity.ok(new ShipmentPageResponse(
-                            List.of(), 0, 0, page, size,
-                            new ShipmentPageResponse.ShipmentAggregates(
-                                    BigDecimal.ZERO, 0, BigDecimal.ZERO, 0, BigDecimal.ZERO
-                            )
-                    ));
-                }
-                return ResponseEntity.ok(List.of());
+        if (!currentUser.hasShopAccess()) {
+            // Return empty response for shop users without shop assigned
+            if (cursor != null) {
+                return ResponseEntity.ok(new ShipmentCursorPageResponse<>(
+                        List.of(), size != null ? size : DEFAULT_CURSOR_PAGE_SIZE, null, false,
+                        includeTotals ? 0L : null, null
+                ));
             }
-            effectiveShopId = currentUser.getShop().getId();
+            if (page != null && size != null) {
+                return ResponseEntity.ok(new ShipmentPageResponse<>(
+                        List.of(), 0, 0, page, size,
+                        new ShipmentPageResponse.ShipmentAggregates(
+                                BigDecimal.ZERO, 0, BigDecimal.ZERO, 0, BigDecimal.ZERO
+                        )
+                ));
+            }
+            return ResponseEntity.ok(List.of());
         }
+        Long effectiveShopId = currentUser.scopeShopId(shopId);
 
         // Parse status filters
         List<Shipment.ShipmentStatus> statusFilters = null;
@@ -153,22 +176,59 @@ public class ShipmentController {
                     .collect(Collectors.toList());
         }
 
+        // Cursor (keyset) pagination: an empty cursor requests the first page
+        if (cursor != null) {
+            int pageSize = size != null ? size : DEFAULT_CURSOR_PAGE_SIZE;
+            if (pageSize < 1) {
+                return ResponseEntity.badRequest().body("Dimensione pagina non valida");
+            }
+            try {
+                ShipmentCursorPageResponse<?> response = shipmentService.getShipmentsByCursor(
+                        startDate,
+                        endDate,
+                        effectiveShopId,
+                        driverId,
+                        statusFilters,
+                        cursor,
+                        Math.min(pageSize, MAX_CURSOR_PAGE_SIZE),
+                        includeTotals,
+                        detail
+                );
+                return ResponseEntity.ok(response);
+            } catch (IllegalArgumentException e) {
+                return ResponseEntity.badRequest().body("Cursore non valido");
+            }
+        }
+
         // If pagination is requested, use the new paginated service method
         if (page != null && size != null) {
-            ShipmentPageResponse response = shipmentService.getShipmentsPaginated(
+            ShipmentPageResponse<?> response = shipmentService.getShipmentsPaginated(
                     startDate,
                     endDate,
                     effectiveShopId,
                     driverId,
                     statusFilters,
                     page,
-                    size
+                    size,
+                    detail
             );
             return ResponseEntity.ok(response);
         }
 
         // Return filtered shipments without pagination (for backward compatibility)
-        List<Shipment> filteredShipments = shipmentService.getShipmentsFiltered(
+        if (detail) {
+            List<Shipment> filteredShipments = shipmentService.getShipmentsFiltered(
+                    startDate,
+                    endDate,
+                    effectiveShopId,
+                    driverId,
+                    statusFilters
+            );
+            return ResponseEntity.ok(filteredShipments);
+        }
+
+        // Summary rows by default: list views don't need items and products
+        List<ShipmentSummary> summaries = shipmentService.getShipmentSummaries(
                 startDate,
                 endDate,
                 effectiveShopId,
@@ -176,7 +236,91 @@ public class ShipmentController {
                 statusFilters
         );
 
-        return ResponseEntity.ok(filteredShipments);
+        return ResponseEntity.ok(summaries);
+    }
+
+    /**
+     * Stream filtered shipments and their items as CSV (optionally gzip-compressed)
+     */
+    @GetMapping("/export")
+    @PreAuthorize("hasAnyRole('ADMIN', 'ACCOUNTANT', 'SHOP')")
+    public void exportShipments(
+            @RequestParam(required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE) LocalDate startDate,
+            @RequestParam(required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE) LocalDate endDate,
+            @RequestParam(required = false) Long shopId,
+            @RequestParam(required = false) Long driverId,
+            @RequestParam(required = false) List<String> statuses,
+            @RequestParam(required = false, defaultValue = "false") boolean gzip,
+            @CurrentUser AuthenticatedUser currentUser,
+            HttpServletResponse response) throws IOException {
+
+        String fileName = "spedizioni_" + LocalDate.now() + (gzip ? ".csv.gz" : ".csv");
+        response.setContentType(gzip ? "application/gzip" : "text/csv; charset=UTF-8");
+        response.setHeader(HttpHeaders.CONTENT_DISPOSITION, "attachment; filename=\"" + fileName + "\"");
+
+        // SHOP users can only export their own shop's shipments
+        if (!currentUser.hasShopAccess()) {
+            shipmentExportService.exportEmptyCsv(gzip, response.getOutputStream());
+            return;
+        }
+        Long effectiveShopId = currentUser.scopeShopId(shopId);
+
+        // Parse status filters
+        List<Shipment.ShipmentStatus> statusFilters = null;
+        if (statuses != null && !statuses.isEmpty()) {
+            statusFilters = statuses.stream()
+                    .map(Shipment.ShipmentStatus::valueOf)
+                    .collect(Collectors.toList());
+        }
+
+        shipmentExportService.exportCsv(
+                startDate,
+                endDate,
+                effectiveShopId,
+                driverId,
+                statusFilters,
+                gzip,
+                response.getOutputStream()
+        );
+    }
+
+    @GetMapping("/pdf-archive")
+    @PreAuthorize("hasAnyRole('ADMIN', 'ACCOUNTANT', 'SHOP')")
+    public void downloadPdfArchive(
+            @RequestParam(required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE) LocalDate startDate,
+            @RequestParam(required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE) LocalDate endDate,
+            @RequestParam(required = false) Long shopId,
+            @RequestParam(required = false) Long driverId,
+            @RequestParam(required = false) List<String> statuses,
+            @CurrentUser AuthenticatedUser currentUser,
+            HttpServletResponse response) throws IOException {
+
+        String fileName = "ddt_" + LocalDate.now() + ".zip";
+        response.setContentType("application/zip");
+        response.setHeader(HttpHeaders.CONTENT_DISPOSITION, "attachment; filename=\"" + fileName + "\"");
+
+        // SHOP users can only download their own shop's documents
+        if (!currentUser.hasShopAccess()) {
+            pdfArchiveService.exportEmptyZip(response.getOutputStream());
+            return;
+        }
+        Long effectiveShopId = currentUser.scopeShopId(shopId);
+
+        List<Shipment.ShipmentStatus> statusFilters = null;
+        if (statuses != null && !statuses.isEmpty()) {
+            statusFilters = statuses.stream()
+                    .map(Shipment.ShipmentStatus::valueOf)
+                    .collect(Collectors.toList());
+        }
+
+        pdfArchiveService.exportZip(
+                startDate,
+                endDate,
+                effectiveShopId,
+                driverId,
+                statusFilters,
+                response.getOutputStream()
+        );
     }
 
     @GetMapping("/{id}")
@@ -187,8 +331,10 @@ public class ShipmentController {
 
     @GetMapping("/shop/{shopId}")
     @PreAuthorize("hasAnyRole('ADMIN', 'SHOP', 'ACCOUNTANT')")
-    public ResponseEntity<List<Shipment>> getShipmentsByShop(@PathVariable Long shopId) {
-        return ResponseEntity.ok(shipmentService.getShipmentsByShop(shopId));
+    public ResponseEntity<List<ShipmentSummary>> getShipmentsByShop(
+            @PathVariable Long shopId,
+            @CurrentUser AuthenticatedUser currentUser) {
+        return ResponseEntity.ok(shipmentService.getShipmentsByShop(currentUser.scopeShopId(shopId)));
     }
 
     @GetMapping("/shop/{shopId}/last-shipment")
@@ -203,16 +349,36 @@ public class ShipmentController {
 
     @GetMapping("/driver/today")
     @PreAuthorize("hasRole('DRIVER')")
-    public ResponseEntity<List<Shipment>> getDriverTodayShipments(
-            @AuthenticationPrincipal UserDetails userDetails) {
+    public ResponseEntity<List<ShipmentSummary>> getDriverTodayShipments(
+            @CurrentUser AuthenticatedUser driver) {
 
-        User driver = userRepository.findByUsername(userDetails.getUsername())
-                .orElseThrow(() -> new RuntimeException("User not found"));
-
-        List<Shipment> shipments = shipmentService.getShipmentsByDriver(driver.getId(), LocalDate.now());
+        LocalDate today = LocalDate.now();
+        List<ShipmentSummary> shipments = shipmentService.getShipmentSummaries(today, today, null, driver.getId(), null);
         return ResponseEntity.ok(shipments);
     }
 
+    @GetMapping("/driver/{driverId}/manifest")
+    @PreAuthorize("hasAnyRole('ADMIN', 'ACCOUNTANT', 'DRIVER')")
+    public void downloadDriverManifest(
+            @PathVariable Long driverId,
+            @RequestParam(required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE) LocalDate date,
+            @CurrentUser AuthenticatedUser currentUser,
+            HttpServletResponse response) throws IOException {
+
+        // Drivers only get their own manifest
+        if (currentUser.getRole() == User.UserRole.DRIVER && !currentUser.getId().equals(driverId)) {
+            response.setStatus(HttpServletResponse.SC_FORBIDDEN);
+            return;
+        }
+
+        LocalDate manifestDate = date != null ? date : LocalDate.now();
+        response.setContentType(MediaType.APPLICATION_PDF_VALUE);
+        response.setHeader(HttpHeaders.CONTENT_DISPOSITION,
+                "attachment; filename=\"distinta_" + driverId + "_" + manifestDate + ".pdf\"");
+
+        shipmentService.writeDriverManifest(driverId, manifestDate, response.getOutputStream());
+    }
+
     @DeleteMapping("/{id}")
     @PreAuthorize("hasRole('ADMIN')")
     public ResponseEntity<Void> deleteShipment(@PathVariable Long id) {
@@ -222,28 +388,40 @@ public class ShipmentController {
 
     @GetMapping("/{id}/pdf")
     @PreAuthorize("hasAnyRole('ADMIN', 'ACCOUNTANT', 'DRIVER', 'SHOP')")
-    public ResponseEntity<Resource> downloadPDF(@PathVariable Long id) {
+    public void downloadPDF(
+            @PathVariable Long id,
+            @CurrentUser AuthenticatedUser currentUser,
+            HttpServletRequest request,
+            HttpServletResponse response) throws IOException {
+
+        // Only the shipment's shop and PDF columns are read: a revalidation (304) costs this one query
+        ShipmentPdfInfo info;
+        PdfRenderService.RenderedPdf pdf;
+        PdfStorageService.StoredPdf stored;
         try {
-            Shipment shipment = shipmentService.regenerateShipmentPdf(id);
-
-            if (shipment.getPdfPath() == null || shipment.getPdfPath().isEmpty()) {
-                return ResponseEntity.notFound().build();
+            info = shipmentService.getPdfInfo(id);
+            // SHOP users only download their own shop's documents
+            if (currentUser.isShopUser() && !info.getShopId().equals(currentUser.getShopId())) {
+                response.setStatus(HttpServletResponse.SC_FORBIDDEN);
+                return;
             }
+            // Serve the rendered file; only waits if a render of this shipment is queued or running
+            pdf = pdfRenderService.getRenderedPdf(info);
+            // Documents of closed months are served from their monthly archive
+            stored = pdfStorageService.locate(pdf.path());
+        } catch (Exception e) {
+            response.setStatus(HttpServletResponse.SC_INTERNAL_SERVER_ERROR);
+            return;
+        }
 
-            java.nio.file.Path filePath = java.nio.file.Paths.get(shipment.getPdfPath());
-            Resource resource = new UrlResource(filePath.toUri());
-
-            if (resource.exists() && resource.isReadable()) {
-                return ResponseEntity.ok()
-                        .contentType(MediaType.APPLICATION_PDF)
-                        .header(HttpHeaders.CONTENT_DISPOSITION,
-                                "attachment; filename=\"" + shipment.getShipmentNumber() + ".pdf\"")
-                        .body(resource);
+        try (stored) {
+            if (stored.isPacked()) {
+                fileDownloadService.serve(request, response, stored.archive(), stored.entry(), pdf.fingerprint(),
+                        MediaType.APPLICATION_PDF_VALUE, info.getShipmentNumber() + ".pdf");
             } else {
-                return ResponseEntity.notFound().build();
+                fileDownloadService.serve(request, response, stored.file(), pdf.fingerprint(),
+                        MediaType.APPLICATION_PDF_VALUE, info.getShipmentNumber() + ".pdf");
             }
-        } catch (Exception e) {
-            return ResponseEntity.internalServerError().build();
         }
     }
 
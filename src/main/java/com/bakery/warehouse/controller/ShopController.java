@@ -2,6 +2,7 @@ package com.bakery.warehouse.controller;
 
 import com.bakery.warehouse.entity.Shop;
 import com.bakery.warehouse.repository.ShopRepository;
+import com.bakery.warehouse.service.CatalogCache;
 import lombok.RequiredArgsConstructor;
 import org.springframework.http.ResponseEntity;
 import org.springframework.security.access.prepost.PreAuthorize;
@@ -15,23 +16,24 @@ import java.util.List;
 public class ShopController {
 
     private final ShopRepository shopRepository;
+    private final CatalogCache catalogCache;
 
     @GetMapping
     public ResponseEntity<List<Shop>> getAllShops() {
-        return ResponseEntity.ok(shopRepository.findByActiveTrue());
+        return ResponseEntity.ok(catalogCache.getActiveShops());
     }
 
     @GetMapping("/{id}")
     public ResponseEntity<Shop> getShop(@PathVariable Long id) {
-        return shopRepository.findById(id)
-                .map(ResponseEntity::ok)
-                .orElse(ResponseEntity.notFound().build());
+        Shop shop = catalogCache.findShop(id);
+        return shop != null ? ResponseEntity.ok(shop) : ResponseEntity.notFound().build();
     }
 
     @PostMapping
     @PreAuthorize("hasRole('ADMIN')")
     public ResponseEntity<Shop> createShop(@RequestBody Shop shop) {
         Shop saved = shopRepository.save(shop);
+        catalogCache.refreshShops();
         return ResponseEntity.ok(saved);
     }
 
@@ -43,6 +45,7 @@ public class ShopController {
         }
         shop.setId(id);
         Shop updated = shopRepository.save(shop);
+        catalogCache.refreshShops();
         return ResponseEntity.ok(updated);
     }
 
@@ -50,6 +53,7 @@ public class ShopController {
     @PreAuthorize("hasRole('ADMIN')")
     public ResponseEntity<Void> deleteShop(@PathVariable Long id) {
         shopRepository.deleteById(id);
+        catalogCache.refreshShops();
         return ResponseEntity.noContent().build();
     }
 }
@@ -4,6 +4,7 @@ import com.bakery.warehouse.entity.Shop;
 import com.bakery.warehouse.entity.User;
 import com.bakery.warehouse.repository.ShopRepository;
 import com.bakery.warehouse.repository.UserRepository;
+import com.bakery.warehouse.security.UserStatusCache;
 import lombok.RequiredArgsConstructor;
 import org.springframework.http.ResponseEntity;
 import org.springframework.security.access.prepost.PreAuthorize;
@@ -22,6 +23,7 @@ public class UserController {
     private final UserRepository userRepository;
     private final ShopRepository shopRepository;
     private final PasswordEncoder passwordEncoder;
+    private final UserStatusCache userStatusCache;
 
     @GetMapping
     @PreAuthorize("hasRole('ADMIN')")
@@ -116,6 +118,7 @@ public class UserController {
         user.setUpdatedAt(LocalDateTime.now());
 
         User updated = userRepository.save(user);
+        userStatusCache.evict(id);
         return ResponseEntity.ok(updated);
     }
 
@@ -126,6 +129,7 @@ public class UserController {
                 .orElseThrow(() -> new RuntimeException("User not found"));
 
         userRepository.delete(user);
+        userStatusCache.evict(id);
         return ResponseEntity.noContent().build();
     }
 
@@ -139,6 +143,7 @@ public class UserController {
         user.setUpdatedAt(LocalDateTime.now());
 
         User updated = userRepository.save(user);
+        userStatusCache.evict(id);
         return ResponseEntity.ok(updated);
     }
 }
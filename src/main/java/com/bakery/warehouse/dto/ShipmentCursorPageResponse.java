@@ -0,0 +1,29 @@
+package com.bakery.warehouse.dto;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.util.List;
+
+/**
+ * DTO for cursor (keyset) paginated shipment response
+ * (content is either ShipmentSummary rows or full Shipment entities)
+ */
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class ShipmentCursorPageResponse<T> {
+
+    // Current page of data
+    private List<T> content;
+    private int pageSize;
+
+    // Opaque cursor to pass back for the next page (null on the last page)
+    private String nextCursor;
+    private boolean hasNext;
+
+    // Only calculated when totals are requested, null otherwise
+    private Long totalElements;
+    private ShipmentPageResponse.ShipmentAggregates aggregates;
+}
@@ -1,6 +1,5 @@
 package com.bakery.warehouse.dto;
 
-import com.bakery.warehouse.entity.Shipment;
 import lombok.AllArgsConstructor;
 import lombok.Data;
 import lombok.NoArgsConstructor;
@@ -10,14 +9,15 @@ import java.util.List;
 
 /**
  * DTO for paginated shipment response with aggregates
+ * (content is either ShipmentSummary rows or full Shipment entities)
  */
 @Data
 @NoArgsConstructor
 @AllArgsConstructor
-public class ShipmentPageResponse {
+public class ShipmentPageResponse<T> {
 
     // Paginated data
-    private List<Shipment> content;
+    private List<T> content;
     private int totalElements;
     private int totalPages;
     private int currentPage;
@@ -0,0 +1,23 @@
+package com.bakery.warehouse.dto;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.time.LocalDate;
+
+/**
+ * The shipment columns needed to authorize, serve and store its PDF, loaded without items
+ */
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class ShipmentPdfInfo {
+
+    private Long id;
+    private Long shopId;
+    private String shipmentNumber;
+    private LocalDate shipmentDate;
+    private String pdfPath;
+    private String pdfFingerprint;
+}
@@ -0,0 +1,83 @@
+package com.bakery.warehouse.dto;
+
+import com.bakery.warehouse.entity.Shipment;
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.math.BigDecimal;
+import java.time.LocalDate;
+
+/**
+ * Lightweight shipment row for list views: header fields plus the per-shipment totals
+ * stored on the shipment, without items and products. Full detail is served by GET /api/shipments/{id}.
+ */
+@Data
+@NoArgsConstructor
+public class ShipmentSummary {
+
+    private Long id;
+    private String shipmentNumber;
+    private LocalDate shipmentDate;
+    private Shipment.ShipmentStatus status;
+    private ShopSummary shop;
+    private DriverSummary driver;
+    private String pdfPath;
+    private Boolean emailSent;
+    private Boolean whatsappSent;
+    private LocalDate returnDate;
+
+    // Totals for shipment items
+    private BigDecimal shipmentTotal;
+    private Integer shipmentItemCount;
+
+    // Totals for return items
+    private BigDecimal returnTotal;
+    private Integer returnItemCount;
+
+    // Net total (shipment - returns)
+    private BigDecimal netTotal;
+
+    /**
+     * Constructor used by the summary projection query
+     */
+    public ShipmentSummary(Long id, String shipmentNumber, LocalDate shipmentDate, Shipment.ShipmentStatus status,
+                           Long shopId, String shopCode, String shopName,
+                           Long driverId, String driverFullName,
+                           String pdfPath, Boolean emailSent, Boolean whatsappSent, LocalDate returnDate,
+                           BigDecimal shipmentTotal, Integer shipmentItemCount,
+                           BigDecimal returnTotal, Integer returnItemCount) {
+        this.id = id;
+        this.shipmentNumber = shipmentNumber;
+        this.shipmentDate = shipmentDate;
+        this.status = status;
+        this.shop = shopId != null ? new ShopSummary(shopId, shopCode, shopName) : null;
+        this.driver = driverId != null ? new DriverSummary(driverId, driverFullName) : null;
+        this.pdfPath = pdfPath;
+        this.emailSent = emailSent;
+        this.whatsappSent = whatsappSent;
+        this.returnDate = returnDate;
+        this.shipmentTotal = shipmentTotal != null ? shipmentTotal : BigDecimal.ZERO;
+        this.shipmentItemCount = shipmentItemCount != null ? shipmentItemCount : 0;
+        this.returnTotal = returnTotal != null ? returnTotal : BigDecimal.ZERO;
+        this.returnItemCount = returnItemCount != null ? returnItemCount : 0;
+        this.netTotal = this.shipmentTotal.subtract(this.returnTotal);
+    }
+
+    @Data
+    @NoArgsConstructor
+    @AllArgsConstructor
+    public static class ShopSummary {
+        private Long id;
+        private String code;
+        private String name;
+    }
+
+    @Data
+    @NoArgsConstructor
+    @AllArgsConstructor
+    public static class DriverSummary {
+        private Long id;
+        private String fullName;
+    }
+}
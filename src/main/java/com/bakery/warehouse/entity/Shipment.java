@@ -7,21 +7,29 @@ import lombok.AllArgsConstructor;
 import lombok.Data;
 import lombok.NoArgsConstructor;
 
+import java.math.BigDecimal;
+import java.math.RoundingMode;
 import java.time.LocalDate;
 import java.time.LocalDateTime;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
 
 @Entity
-@Table(name = "shipments")
+@Table(name = "shipments",
+        indexes = @Index(name = "idx_shipment_date_id", columnList = "shipmentDate, id"))
 @Data
 @NoArgsConstructor
 @AllArgsConstructor
 @JsonIgnoreProperties({"hibernateLazyInitializer", "handler"})
 public class Shipment {
 
+    private static final AtomicLong LAST_NUMBER_MILLIS = new AtomicLong();
+
+    // Pooled sequence (allocationSize = sequence increment) so inserts can be JDBC-batched
     @Id
-    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    @GeneratedValue(strategy = GenerationType.SEQUENCE, generator = "shipment_seq")
+    @SequenceGenerator(name = "shipment_seq", sequenceName = "shipment_seq", allocationSize = 50)
     private Long id;
 
     @Column(unique = true, nullable = false)
@@ -43,9 +51,22 @@ public class Shipment {
     @Column(nullable = false)
     private ShipmentStatus status = ShipmentStatus.BOZZA;
 
+    // Stable order, so the printed document (and its fingerprint) does not depend on how rows come back
     @OneToMany(mappedBy = "shipment", cascade = CascadeType.ALL, orphanRemoval = true)
+    @OrderBy("id")
     private List<ShipmentItem> items = new ArrayList<>();
 
+    // Item totals, kept in sync by recalculateTotals() whenever items change
+    @Column(precision = 14, scale = 2)
+    private BigDecimal shipmentTotal = BigDecimal.ZERO;
+
+    private Integer shipmentItemCount = 0;
+
+    @Column(precision = 14, scale = 2)
+    private BigDecimal returnTotal = BigDecimal.ZERO;
+
+    private Integer returnItemCount = 0;
+
     private String notes;
 
     private LocalDate returnDate;
@@ -54,6 +75,10 @@ public class Shipment {
 
     private String pdfPath;
 
+    // Fingerprint of the content printed in the PDF at pdfPath (see PDFService.fingerprint)
+    @Column(length = 64)
+    private String pdfFingerprint;
+
     @Column(nullable = false)
     private Boolean emailSent = false;
 
@@ -87,8 +112,39 @@ public class Shipment {
         updatedAt = LocalDateTime.now();
     }
 
+    /**
+     * Recalculate the persisted item totals from the items collection
+     */
+    public void recalculateTotals() {
+        BigDecimal shipmentSum = BigDecimal.ZERO;
+        BigDecimal returnSum = BigDecimal.ZERO;
+        int shipmentCount = 0;
+        int returnCount = 0;
+
+        for (ShipmentItem item : items) {
+            // Rounded per line, so the totals match the line totals printed on the DDT
+            BigDecimal amount = item.lineTotal();
+
+            if (item.getItemType() == ShipmentItem.ItemType.RETURN) {
+                returnSum = returnSum.add(amount);
+                returnCount++;
+            } else {
+                shipmentSum = shipmentSum.add(amount);
+                shipmentCount++;
+            }
+        }
+
+        // Same scale as the columns, so values read before and after a reload match
+        shipmentTotal = shipmentSum.setScale(2, RoundingMode.HALF_UP);
+        shipmentItemCount = shipmentCount;
+        returnTotal = returnSum.setScale(2, RoundingMode.HALF_UP);
+        returnItemCount = returnCount;
+    }
+
     private String generateShipmentNumber() {
-        return "SHP-" + LocalDate.now().toString().replace("-", "") + "-" + System.currentTimeMillis() % 100000;
+        // Never reuse the previous millisecond, so shipments created in one burst get distinct numbers
+        long millis = LAST_NUMBER_MILLIS.updateAndGet(last -> Math.max(System.currentTimeMillis(), last + 1));
+        return "SHP-" + LocalDate.now().toString().replace("-", "") + "-" + millis % 100000;
     }
 
     public enum ShipmentStatus {
@@ -0,0 +1,69 @@
+package com.bakery.warehouse.entity;
+
+import jakarta.persistence.*;
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.math.BigDecimal;
+import java.time.LocalDate;
+
+/**
+ * Pre-aggregated shipment items per day, shop, product, item type and return reason.
+ * Maintained incrementally by ShipmentRollupService in the same transaction as shipment changes.
+ * rollupKey joins the five into one unique, non-null value (returnReason is null for most rows,
+ * and a unique constraint over a null column would not stop duplicates).
+ */
+@Entity
+@Table(name = "shipment_daily_rollups",
+        indexes = @Index(name = "idx_rollup_date_shop", columnList = "rollupDate, shop_id"),
+        uniqueConstraints = @UniqueConstraint(name = "uk_rollup_key", columnNames = "rollupKey"))
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class ShipmentDailyRollup {
+
+    @Id
+    @GeneratedValue(strategy = GenerationType.SEQUENCE, generator = "shipment_daily_rollup_seq")
+    @SequenceGenerator(name = "shipment_daily_rollup_seq", sequenceName = "shipment_daily_rollup_seq", allocationSize = 50)
+    private Long id;
+
+    @Column(nullable = false, length = 100)
+    private String rollupKey;
+
+    @Column(nullable = false)
+    private LocalDate rollupDate;
+
+    @ManyToOne(fetch = FetchType.LAZY)
+    @JoinColumn(name = "shop_id", nullable = false)
+    private Shop shop;
+
+    @ManyToOne(fetch = FetchType.LAZY)
+    @JoinColumn(name = "product_id", nullable = false)
+    private Product product;
+
+    @Enumerated(EnumType.STRING)
+    @Column(nullable = false)
+    private ShipmentItem.ItemType itemType;
+
+    @Enumerated(EnumType.STRING)
+    private ShipmentItem.ReturnReason returnReason;
+
+    @Column(nullable = false, precision = 14, scale = 3)
+    private BigDecimal quantity = BigDecimal.ZERO;
+
+    @Column(nullable = false, precision = 14, scale = 2)
+    private BigDecimal amount = BigDecimal.ZERO;
+
+    @Column(nullable = false)
+    private Long itemCount = 0L;
+
+    /**
+     * Same value as migrate_rollup_unique_key.sql computes in SQL
+     */
+    public static String keyOf(LocalDate rollupDate, Long shopId, Long productId,
+                               ShipmentItem.ItemType itemType, ShipmentItem.ReturnReason returnReason) {
+        return rollupDate + "/" + shopId + "/" + productId + "/" + itemType + "/"
+                + (returnReason != null ? returnReason.name() : "-");
+    }
+}
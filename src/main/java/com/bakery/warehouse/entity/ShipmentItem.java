@@ -9,16 +9,19 @@ import lombok.Data;
 import lombok.NoArgsConstructor;
 
 import java.math.BigDecimal;
+import java.math.RoundingMode;
 
 @Entity
-@Table(name = "shipment_items")
+@Table(name = "shipment_items",
+        indexes = @Index(name = "idx_shipment_item_shipment", columnList = "shipment_id"))
 @Data
 @NoArgsConstructor
 @AllArgsConstructor
 public class ShipmentItem {
 
     @Id
-    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    @GeneratedValue(strategy = GenerationType.SEQUENCE, generator = "shipment_item_seq")
+    @SequenceGenerator(name = "shipment_item_seq", sequenceName = "shipment_item_seq", allocationSize = 50)
     private Long id;
 
     @JsonIgnore
@@ -56,10 +59,21 @@ public class ShipmentItem {
     @PreUpdate
     protected void calculateTotal() {
         if (quantity != null && unitPrice != null) {
-            totalPrice = quantity.multiply(unitPrice);
+            totalPrice = lineTotal();
         }
     }
 
+    /**
+     * quantity x unitPrice rounded to the scale of totalPrice, the value every total adds up;
+     * unlike totalPrice it is also right for items not flushed yet
+     */
+    public BigDecimal lineTotal() {
+        if (quantity != null && unitPrice != null) {
+            return quantity.multiply(unitPrice).setScale(2, RoundingMode.HALF_UP);
+        }
+        return totalPrice != null ? totalPrice : BigDecimal.ZERO;
+    }
+
     public enum ItemType {
         SHIPMENT,   // Regular shipment item
         RETURN      // Return item
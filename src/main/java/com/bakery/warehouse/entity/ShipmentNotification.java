@@ -0,0 +1,94 @@
+package com.bakery.warehouse.entity;
+
+import jakarta.persistence.*;
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.time.LocalDateTime;
+
+/**
+ * Outbox record of a notification to send about a shipment, one per channel and recipient.
+ * Written in the transaction that makes the notification due, delivered after commit by NotificationDispatcher.
+ */
+@Entity
+@Table(name = "shipment_notifications",
+        indexes = {
+                @Index(name = "idx_notification_status_next", columnList = "status, nextAttemptAt"),
+                @Index(name = "idx_notification_digest", columnList = "digestShopId, status")
+        })
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class ShipmentNotification {
+
+    @Id
+    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    private Long id;
+
+    // Plain id: the record outlives the shipment if it is deleted before delivery
+    @Column(nullable = false)
+    private Long shipmentId;
+
+    @Enumerated(EnumType.STRING)
+    @Column(nullable = false)
+    private Channel channel;
+
+    // WhatsApp messages get a record per recipient, so a retry does not send again to one already reached.
+    // An email is a single message to the shop with the driver in copy: always SHOP.
+    @Enumerated(EnumType.STRING)
+    @Column(nullable = false)
+    private Recipient recipient = Recipient.SHOP;
+
+    @Enumerated(EnumType.STRING)
+    @Column(nullable = false)
+    private Status status = Status.PENDING;
+
+    // Set on emails for a shop in digest mode: they are sent together with the shop's other due emails
+    private Long digestShopId;
+
+    @Column(nullable = false)
+    private Integer attempts = 0;
+
+    @Column(length = 1000)
+    private String lastError;
+
+    @Column(nullable = false)
+    private LocalDateTime createdAt;
+
+    // A PENDING notification is not sent before this time (retry backoff)
+    @Column(nullable = false)
+    private LocalDateTime nextAttemptAt;
+
+    // When the current attempt started (SENDING)
+    private LocalDateTime claimedAt;
+
+    private LocalDateTime sentAt;
+
+    @PrePersist
+    protected void onCreate() {
+        createdAt = LocalDateTime.now();
+        if (nextAttemptAt == null) {
+            nextAttemptAt = createdAt;
+        }
+    }
+
+    public enum Channel {
+        EMAIL,
+        WHATSAPP
+    }
+
+    public enum Recipient {
+        SHOP,
+        DRIVER
+    }
+
+    public enum Status {
+        PENDING,
+        SENDING,
+        SENT,
+        // Dead letter: every attempt failed, or one failed in a way retrying cannot fix;
+        // only sent again if retried by an admin
+        FAILED
+    }
+}
@@ -47,6 +47,9 @@ public class Shop {
 
     private String contactPerson;
 
+    // Collect the shipment emails into one digest per app.notifications.digest-window instead of one per shipment
+    private Boolean emailDigest = false;
+
     @Column(nullable = false)
     private Boolean active = true;
 
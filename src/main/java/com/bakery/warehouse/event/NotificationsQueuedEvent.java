@@ -0,0 +1,18 @@
+package com.bakery.warehouse.event;
+
+import com.bakery.warehouse.entity.ShipmentNotification;
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+
+import java.util.List;
+
+/**
+ * Published by NotificationDispatcher when outbox records are written, so they are delivered
+ * as soon as the transaction that wrote them commits
+ */
+@Getter
+@AllArgsConstructor
+public class NotificationsQueuedEvent {
+
+    private final List<ShipmentNotification> notifications;
+}
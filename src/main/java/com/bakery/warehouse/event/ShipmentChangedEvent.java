@@ -0,0 +1,37 @@
+package com.bakery.warehouse.event;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.Getter;
+
+import java.time.LocalDate;
+import java.util.List;
+
+/**
+ * Published by ShipmentService whenever a shipment is created, modified or deleted.
+ * Lists every (shop, driver, date) the shipment belonged to before and after the change,
+ * so listeners can invalidate exactly the data that may have changed.
+ */
+@Getter
+@AllArgsConstructor
+public class ShipmentChangedEvent {
+
+    private final Long shipmentId;
+    private final ChangeType changeType;
+    private final List<Scope> scopes;
+
+    public enum ChangeType {
+        CREATED,
+        UPDATED,
+        STATUS_CHANGED,
+        DELETED
+    }
+
+    @Data
+    @AllArgsConstructor
+    public static class Scope {
+        private Long shopId;
+        private Long driverId;
+        private LocalDate date;
+    }
+}
@@ -0,0 +1,79 @@
+package com.bakery.warehouse.repository;
+
+import com.bakery.warehouse.entity.ShipmentDailyRollup;
+import com.bakery.warehouse.entity.ShipmentItem;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+import org.springframework.stereotype.Repository;
+
+import java.time.LocalDate;
+import java.util.Collection;
+import java.util.List;
+
+@Repository
+public interface ShipmentDailyRollupRepository extends JpaRepository<ShipmentDailyRollup, Long> {
+
+    @Query("SELECT r FROM ShipmentDailyRollup r WHERE r.rollupKey IN :keys")
+    List<ShipmentDailyRollup> findByKeys(@Param("keys") Collection<String> keys);
+
+    @Modifying
+    @Query("DELETE FROM ShipmentDailyRollup r")
+    void deleteAllRollups();
+
+    /**
+     * Aggregate raw shipment items into rollup rows (used for rebuild/backfill)
+     * Returns: [shipmentDate, shopId, productId, itemType, returnReason, sumQuantity, sumTotalPrice, count]
+     */
+    @Query("SELECT s.shipmentDate, s.shop.id, si.product.id, si.itemType, si.returnReason, " +
+           "SUM(si.quantity), SUM(si.totalPrice), COUNT(si) " +
+           "FROM ShipmentItem si JOIN si.shipment s " +
+           "GROUP BY s.shipmentDate, s.shop.id, si.product.id, si.itemType, si.returnReason")
+    List<Object[]> aggregateShipmentItems();
+
+    /**
+     * Totals per item type over a date range, optionally restricted to a shop
+     * Returns: [itemType, sumAmount, sumItemCount]
+     */
+    @Query("SELECT r.itemType, SUM(r.amount), SUM(r.itemCount) " +
+           "FROM ShipmentDailyRollup r " +
+           "WHERE r.rollupDate BETWEEN :startDate AND :endDate " +
+           "AND (:shopId IS NULL OR r.shop.id = :shopId) " +
+           "GROUP BY r.itemType")
+    List<Object[]> sumByItemType(@Param("startDate") LocalDate startDate,
+                                 @Param("endDate") LocalDate endDate,
+                                 @Param("shopId") Long shopId);
+
+    /**
+     * Product aggregates for one item type over a date range, optionally restricted to a shop
+     * Returns: [productId, productName, productCode, sumQuantity, sumAmount]
+     */
+    @Query("SELECT r.product.id, r.product.name, r.product.code, SUM(r.quantity), SUM(r.amount) " +
+           "FROM ShipmentDailyRollup r " +
+           "WHERE r.rollupDate BETWEEN :startDate AND :endDate " +
+           "AND (:shopId IS NULL OR r.shop.id = :shopId) " +
+           "AND r.itemType = :itemType " +
+           "GROUP BY r.product.id, r.product.name, r.product.code " +
+           "ORDER BY SUM(r.amount) DESC")
+    List<Object[]> getProductAggregates(@Param("startDate") LocalDate startDate,
+                                        @Param("endDate") LocalDate endDate,
+                                        @Param("shopId") Long shopId,
+                                        @Param("itemType") ShipmentItem.ItemType itemType);
+
+    /**
+     * Shipment and return amounts per day over a date range, optionally restricted to a shop
+     * Returns: [date, shipmentAmount, returnAmount] ordered by date
+     */
+    @Query("SELECT MIN(r.rollupDate), " +
+           "SUM(CASE WHEN r.itemType = com.bakery.warehouse.entity.ShipmentItem$ItemType.SHIPMENT THEN r.amount END), " +
+           "SUM(CASE WHEN r.itemType = com.bakery.warehouse.entity.ShipmentItem$ItemType.RETURN THEN r.amount END) " +
+           "FROM ShipmentDailyRollup r " +
+           "WHERE r.rollupDate BETWEEN :startDate AND :endDate " +
+           "AND (:shopId IS NULL OR r.shop.id = :shopId) " +
+           "GROUP BY r.rollupDate " +
+           "ORDER BY r.rollupDate")
+    List<Object[]> aggregateDailyTotals(@Param("startDate") LocalDate startDate,
+                                        @Param("endDate") LocalDate endDate,
+                                        @Param("shopId") Long shopId);
+}
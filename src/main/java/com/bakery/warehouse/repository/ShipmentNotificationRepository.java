@@ -0,0 +1,118 @@
+package com.bakery.warehouse.repository;
+
+import com.bakery.warehouse.entity.ShipmentNotification;
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+import org.springframework.stereotype.Repository;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.time.LocalDateTime;
+import java.util.List;
+
+@Repository
+public interface ShipmentNotificationRepository extends JpaRepository<ShipmentNotification, Long> {
+
+    /**
+     * Notifications due for an attempt, and attempts that started before staleBefore
+     * and never finished (the app stopped while sending)
+     */
+    @Query("SELECT n FROM ShipmentNotification n " +
+           "WHERE (n.status = com.bakery.warehouse.entity.ShipmentNotification$Status.PENDING " +
+           "AND n.nextAttemptAt <= :now) " +
+           "OR (n.status = com.bakery.warehouse.entity.ShipmentNotification$Status.SENDING " +
+           "AND n.claimedAt < :staleBefore) " +
+           "ORDER BY n.nextAttemptAt, n.id")
+    List<ShipmentNotification> findDispatchable(@Param("now") LocalDateTime now,
+                                                @Param("staleBefore") LocalDateTime staleBefore,
+                                                Pageable pageable);
+
+    /**
+     * Digest emails of the shop due for an attempt, and its attempts that never finished (see findDispatchable)
+     */
+    @Query("SELECT n FROM ShipmentNotification n WHERE n.digestShopId = :shopId " +
+           "AND ((n.status = com.bakery.warehouse.entity.ShipmentNotification$Status.PENDING " +
+           "AND n.nextAttemptAt <= :now) " +
+           "OR (n.status = com.bakery.warehouse.entity.ShipmentNotification$Status.SENDING " +
+           "AND n.claimedAt < :staleBefore)) " +
+           "ORDER BY n.id")
+    List<ShipmentNotification> findDispatchableDigest(@Param("shopId") Long shopId,
+                                                      @Param("now") LocalDateTime now,
+                                                      @Param("staleBefore") LocalDateTime staleBefore);
+
+    /**
+     * When the shop's open digest goes out, or null if no digest email of the shop is waiting
+     */
+    @Query("SELECT MAX(n.nextAttemptAt) FROM ShipmentNotification n WHERE n.digestShopId = :shopId " +
+           "AND n.status = com.bakery.warehouse.entity.ShipmentNotification$Status.PENDING " +
+           "AND n.nextAttemptAt > :now")
+    LocalDateTime findOpenDigestTime(@Param("shopId") Long shopId, @Param("now") LocalDateTime now);
+
+    @Query("SELECT n FROM ShipmentNotification n WHERE n.status = :status ORDER BY n.id DESC")
+    List<ShipmentNotification> findByStatus(@Param("status") ShipmentNotification.Status status, Pageable pageable);
+
+    /**
+     * Returns: [status, count]
+     */
+    @Query("SELECT n.status, COUNT(n) FROM ShipmentNotification n GROUP BY n.status")
+    List<Object[]> countByStatus();
+
+    /**
+     * Start an attempt, unless another one holds the notification or it is not due yet
+     *
+     * @return 1 if this caller now owns the notification, 0 otherwise
+     */
+    @Transactional
+    @Modifying
+    @Query("UPDATE ShipmentNotification n " +
+           "SET n.status = com.bakery.warehouse.entity.ShipmentNotification$Status.SENDING, " +
+           "n.attempts = n.attempts + 1, n.claimedAt = :now " +
+           "WHERE n.id = :id AND ((n.status = com.bakery.warehouse.entity.ShipmentNotification$Status.PENDING " +
+           "AND n.nextAttemptAt <= :now) " +
+           "OR (n.status = com.bakery.warehouse.entity.ShipmentNotification$Status.SENDING " +
+           "AND n.claimedAt < :staleBefore))")
+    int claim(@Param("id") Long id,
+              @Param("now") LocalDateTime now,
+              @Param("staleBefore") LocalDateTime staleBefore);
+
+    @Transactional
+    @Modifying
+    @Query("UPDATE ShipmentNotification n " +
+           "SET n.status = com.bakery.warehouse.entity.ShipmentNotification$Status.SENT, " +
+           "n.sentAt = :sentAt, n.lastError = NULL WHERE n.id = :id")
+    int markSent(@Param("id") Long id, @Param("sentAt") LocalDateTime sentAt);
+
+    /**
+     * Put a failed attempt back in the queue, to be tried again at nextAttemptAt
+     */
+    @Transactional
+    @Modifying
+    @Query("UPDATE ShipmentNotification n " +
+           "SET n.status = com.bakery.warehouse.entity.ShipmentNotification$Status.PENDING, " +
+           "n.lastError = :error, n.nextAttemptAt = :nextAttemptAt WHERE n.id = :id")
+    int markRetry(@Param("id") Long id,
+                  @Param("error") String error,
+                  @Param("nextAttemptAt") LocalDateTime nextAttemptAt);
+
+    @Transactional
+    @Modifying
+    @Query("UPDATE ShipmentNotification n " +
+           "SET n.status = com.bakery.warehouse.entity.ShipmentNotification$Status.FAILED, " +
+           "n.lastError = :error WHERE n.id = :id")
+    int markFailed(@Param("id") Long id, @Param("error") String error);
+
+    /**
+     * Give a dead letter a fresh set of attempts, starting now
+     *
+     * @return 1 if requeued, 0 if the notification is not FAILED
+     */
+    @Transactional
+    @Modifying
+    @Query("UPDATE ShipmentNotification n " +
+           "SET n.status = com.bakery.warehouse.entity.ShipmentNotification$Status.PENDING, " +
+           "n.attempts = 0, n.nextAttemptAt = :now " +
+           "WHERE n.id = :id AND n.status = com.bakery.warehouse.entity.ShipmentNotification$Status.FAILED")
+    int requeueFailed(@Param("id") Long id, @Param("now") LocalDateTime now);
+}
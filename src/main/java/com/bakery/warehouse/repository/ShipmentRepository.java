@@ -1,5 +1,6 @@
 package com.bakery.warehouse.repository;
 
+import com.bakery.warehouse.dto.ShipmentPdfInfo;
 import com.bakery.warehouse.entity.Shipment;
 import com.bakery.warehouse.entity.Shop;
 import com.bakery.warehouse.entity.User;
@@ -9,17 +10,22 @@ import org.springframework.data.jpa.domain.Specification;
 import org.springframework.data.jpa.repository.EntityGraph;
 import org.springframework.data.jpa.repository.JpaRepository;
 import org.springframework.data.jpa.repository.JpaSpecificationExecutor;
+import org.springframework.data.jpa.repository.Modifying;
 import org.springframework.data.jpa.repository.Query;
 import org.springframework.data.repository.query.Param;
 import org.springframework.stereotype.Repository;
+import org.springframework.transaction.annotation.Transactional;
 
 import java.math.BigDecimal;
 import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.util.Collection;
 import java.util.List;
 import java.util.Optional;
 
 @Repository
-public interface ShipmentRepository extends JpaRepository<Shipment, Long>, JpaSpecificationExecutor<Shipment> {
+public interface ShipmentRepository extends JpaRepository<Shipment, Long>, JpaSpecificationExecutor<Shipment>,
+        ShipmentRepositoryCustom {
 
     @EntityGraph(attributePaths = {"items", "items.product", "shop", "driver"})
     List<Shipment> findAll(Specification<Shipment> spec);
@@ -45,41 +51,67 @@ public interface ShipmentRepository extends JpaRepository<Shipment, Long>, JpaSp
     @EntityGraph(attributePaths = {"items", "items.product", "shop", "driver"})
     Optional<Shipment> findDetailedById(Long id);
 
+    @Query("SELECT new com.bakery.warehouse.dto.ShipmentPdfInfo(s.id, s.shop.id, s.shipmentNumber, s.shipmentDate, " +
+           "s.pdfPath, s.pdfFingerprint) FROM Shipment s WHERE s.id = :id")
+    Optional<ShipmentPdfInfo> findPdfInfoById(@Param("id") Long id);
+
+    @Query("SELECT new com.bakery.warehouse.dto.ShipmentPdfInfo(s.id, s.shop.id, s.shipmentNumber, s.shipmentDate, " +
+           "s.pdfPath, s.pdfFingerprint) FROM Shipment s WHERE s.shipmentNumber IN :shipmentNumbers")
+    List<ShipmentPdfInfo> findPdfInfosByShipmentNumbers(@Param("shipmentNumbers") Collection<String> shipmentNumbers);
+
     /**
-     * Calculate total amount for shipment items (item_type = 'SHIPMENT') for filtered shipments
+     * Shipments with a PDF whose path does not match the given LIKE pattern
      */
-    @Query("SELECT COALESCE(SUM(si.totalPrice), 0) " +
-           "FROM ShipmentItem si " +
-           "WHERE si.shipment IN :shipments " +
-           "AND si.itemType = com.bakery.warehouse.entity.ShipmentItem$ItemType.SHIPMENT")
-    BigDecimal calculateTotalShipmentAmount(@Param("shipments") List<Shipment> shipments);
+    @Query("SELECT new com.bakery.warehouse.dto.ShipmentPdfInfo(s.id, s.shop.id, s.shipmentNumber, s.shipmentDate, " +
+           "s.pdfPath, s.pdfFingerprint) FROM Shipment s " +
+           "WHERE s.pdfPath IS NOT NULL AND s.pdfPath <> '' AND s.pdfPath NOT LIKE :layoutPattern")
+    List<ShipmentPdfInfo> findPdfInfosOutsideLayout(@Param("layoutPattern") String layoutPattern);
+
+    @Transactional
+    @Modifying
+    @Query("UPDATE Shipment s SET s.pdfPath = :pdfPath, s.pdfFingerprint = :pdfFingerprint WHERE s.id = :id")
+    int updatePdf(@Param("id") Long id,
+                  @Param("pdfPath") String pdfPath,
+                  @Param("pdfFingerprint") String pdfFingerprint);
 
     /**
-     * Calculate total amount for return items (item_type = 'RETURN') for filtered shipments
+     * Record a delivered notification without loading (and overwriting) the rest of the shipment
      */
-    @Query("SELECT COALESCE(SUM(si.totalPrice), 0) " +
-           "FROM ShipmentItem si " +
-           "WHERE si.shipment IN :shipments " +
-           "AND si.itemType = com.bakery.warehouse.entity.ShipmentItem$ItemType.RETURN")
-    BigDecimal calculateTotalReturnAmount(@Param("shipments") List<Shipment> shipments);
+    @Transactional
+    @Modifying
+    @Query("UPDATE Shipment s SET s.emailSent = true, s.emailSentAt = :sentAt WHERE s.id = :id")
+    int markEmailSent(@Param("id") Long id, @Param("sentAt") LocalDateTime sentAt);
+
+    @Transactional
+    @Modifying
+    @Query("UPDATE Shipment s SET s.whatsappSent = true, s.whatsappSentAt = :sentAt WHERE s.id = :id")
+    int markWhatsappSent(@Param("id") Long id, @Param("sentAt") LocalDateTime sentAt);
 
     /**
-     * Count total shipment items for filtered shipments
+     * Point the shipment at a new location of the same PDF, unless it was re-rendered since it was read
+     * (path or fingerprint changed). An empty fingerprint matches a PDF stored without one.
+     *
+     * @return 1 if moved, 0 if the shipment changed meanwhile
      */
-    @Query("SELECT COUNT(si) " +
-           "FROM ShipmentItem si " +
-           "WHERE si.shipment IN :shipments " +
-           "AND si.itemType = com.bakery.warehouse.entity.ShipmentItem$ItemType.SHIPMENT")
-    Integer countTotalShipmentItems(@Param("shipments") List<Shipment> shipments);
+    @Transactional
+    @Modifying
+    @Query("UPDATE Shipment s SET s.pdfPath = :newPath " +
+           "WHERE s.id = :id AND s.pdfPath = :oldPath AND COALESCE(s.pdfFingerprint, '') = :pdfFingerprint")
+    int movePdf(@Param("id") Long id,
+                @Param("oldPath") String oldPath,
+                @Param("pdfFingerprint") String pdfFingerprint,
+                @Param("newPath") String newPath);
 
     /**
-     * Count total return items for filtered shipments
+     * A driver's shipments for one day with everything printed on their DDTs, in a single query
      */
-    @Query("SELECT COUNT(si) " +
-           "FROM ShipmentItem si " +
-           "WHERE si.shipment IN :shipments " +
-           "AND si.itemType = com.bakery.warehouse.entity.ShipmentItem$ItemType.RETURN")
-    Integer countTotalReturnItems(@Param("shipments") List<Shipment> shipments);
+    @EntityGraph(attributePaths = {"items", "items.product", "shop", "driver"})
+    @Query("SELECT s FROM Shipment s WHERE s.driver.id = :driverId AND s.shipmentDate = :date " +
+           "ORDER BY s.shop.name, s.id")
+    List<Shipment> findDetailedByDriverAndDate(@Param("driverId") Long driverId, @Param("date") LocalDate date);
+
+    @EntityGraph(attributePaths = {"items", "items.product", "shop", "driver"})
+    List<Shipment> findDetailedByIdIn(Collection<Long> ids);
 
     /**
      * Get product aggregates for shipment items (products sold)
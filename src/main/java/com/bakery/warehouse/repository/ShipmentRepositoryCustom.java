@@ -0,0 +1,60 @@
+package com.bakery.warehouse.repository;
+
+import com.bakery.warehouse.dto.ShipmentPageResponse;
+import com.bakery.warehouse.dto.ShipmentPdfInfo;
+import com.bakery.warehouse.dto.ShipmentSummary;
+import com.bakery.warehouse.entity.Shipment;
+import org.springframework.data.domain.Sort;
+import org.springframework.data.jpa.domain.Specification;
+
+import java.util.List;
+import java.util.stream.Stream;
+
+/**
+ * Custom queries for Shipments that need the Criteria API directly
+ */
+public interface ShipmentRepositoryCustom {
+
+    /**
+     * Calculate item aggregates (amounts and counts split by item type) for all shipments
+     * matching the specification, in a single query over the stored shipment totals
+     */
+    ShipmentPageResponse.ShipmentAggregates aggregateItemTotals(Specification<Shipment> spec);
+
+    /**
+     * Select only the ids of one window of shipments matching the specification,
+     * so that paging never has to be applied to a collection fetch join
+     */
+    List<Long> findIds(Specification<Shipment> spec, Sort sort, long offset, int limit);
+
+    /**
+     * Summary rows (header fields and stored per-shipment totals) for one window
+     * of shipments matching the specification
+     */
+    List<ShipmentSummary> findSummaries(Specification<Shipment> spec, Sort sort, long offset, int limit);
+
+    /**
+     * Summary rows for all shipments matching the specification
+     */
+    List<ShipmentSummary> findSummaries(Specification<Shipment> spec, Sort sort);
+
+    /**
+     * Shop id, number and PDF columns of all shipments matching the specification
+     */
+    List<ShipmentPdfInfo> findPdfInfos(Specification<Shipment> spec, Sort sort);
+
+    /**
+     * Sum shipment and return amounts per shipment date for all shipments matching the specification
+     * Returns: [shipmentDate, shipmentAmount, returnAmount] ordered by date
+     */
+    List<Object[]> aggregateDailyTotals(Specification<Shipment> spec);
+
+    /**
+     * Stream one flat row per shipment item (shipments without items give one row with empty item columns)
+     * for all shipments matching the specification, read through a forward-only cursor.
+     * Must be consumed and closed inside a transaction.
+     * Returns: [shipmentNumber, shipmentDate, status, shopCode, shopName, driverName,
+     *           itemType, productCode, productName, quantity, unit, unitPrice, totalPrice, returnReason]
+     */
+    Stream<Object[]> streamExportRows(Specification<Shipment> spec);
+}
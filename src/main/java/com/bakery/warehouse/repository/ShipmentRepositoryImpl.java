@@ -0,0 +1,232 @@
+package com.bakery.warehouse.repository;
+
+import com.bakery.warehouse.dto.ShipmentPageResponse;
+import com.bakery.warehouse.dto.ShipmentPdfInfo;
+import com.bakery.warehouse.dto.ShipmentSummary;
+import com.bakery.warehouse.entity.Shipment;
+import com.bakery.warehouse.entity.Product;
+import com.bakery.warehouse.entity.ShipmentItem;
+import com.bakery.warehouse.entity.Shop;
+import com.bakery.warehouse.entity.User;
+import jakarta.persistence.EntityManager;
+import jakarta.persistence.PersistenceContext;
+import jakarta.persistence.Tuple;
+import jakarta.persistence.TypedQuery;
+import jakarta.persistence.criteria.CriteriaBuilder;
+import jakarta.persistence.criteria.CriteriaQuery;
+import jakarta.persistence.criteria.Join;
+import jakarta.persistence.criteria.JoinType;
+import jakarta.persistence.criteria.Path;
+import jakarta.persistence.criteria.Predicate;
+import jakarta.persistence.criteria.Root;
+import org.hibernate.jpa.HibernateHints;
+import org.springframework.data.domain.Sort;
+import org.springframework.data.jpa.domain.Specification;
+import org.springframework.data.jpa.repository.query.QueryUtils;
+
+import java.math.BigDecimal;
+import java.time.LocalDate;
+import java.util.List;
+import java.util.stream.Stream;
+
+public class ShipmentRepositoryImpl implements ShipmentRepositoryCustom {
+
+    private static final int EXPORT_FETCH_SIZE = 500;
+
+    @PersistenceContext
+    private EntityManager entityManager;
+
+    @Override
+    public ShipmentPageResponse.ShipmentAggregates aggregateItemTotals(Specification<Shipment> spec) {
+        CriteriaBuilder cb = entityManager.getCriteriaBuilder();
+        CriteriaQuery<Tuple> query = cb.createTupleQuery();
+        Root<Shipment> root = query.from(Shipment.class);
+
+        // Sums of the per-shipment totals, so the items table is not read at all
+        query.multiselect(
+                cb.sum(root.<BigDecimal>get("shipmentTotal")).alias("shipmentAmount"),
+                cb.sum(root.<Integer>get("shipmentItemCount")).alias("shipmentItems"),
+                cb.sum(root.<BigDecimal>get("returnTotal")).alias("returnAmount"),
+                cb.sum(root.<Integer>get("returnItemCount")).alias("returnItems")
+        );
+
+        applySpecification(spec, root, query, cb);
+
+        Tuple result = entityManager.createQuery(query).getSingleResult();
+
+        BigDecimal totalShipmentAmount = orZero(result.get("shipmentAmount", BigDecimal.class));
+        BigDecimal totalReturnAmount = orZero(result.get("returnAmount", BigDecimal.class));
+
+        return new ShipmentPageResponse.ShipmentAggregates(
+                totalShipmentAmount,
+                toInt((Number) result.get("shipmentItems")),
+                totalReturnAmount,
+                toInt((Number) result.get("returnItems")),
+                totalShipmentAmount.subtract(totalReturnAmount)
+        );
+    }
+
+    @Override
+    public List<Long> findIds(Specification<Shipment> spec, Sort sort, long offset, int limit) {
+        CriteriaBuilder cb = entityManager.getCriteriaBuilder();
+        CriteriaQuery<Long> query = cb.createQuery(Long.class);
+        Root<Shipment> root = query.from(Shipment.class);
+
+        query.select(root.get("id"));
+        applySpecification(spec, root, query, cb);
+        query.orderBy(QueryUtils.toOrders(sort, root, cb));
+
+        return entityManager.createQuery(query)
+                .setFirstResult(Math.toIntExact(offset))
+                .setMaxResults(limit)
+                .getResultList();
+    }
+
+    @Override
+    public List<ShipmentSummary> findSummaries(Specification<Shipment> spec, Sort sort, long offset, int limit) {
+        return createSummaryQuery(spec, sort)
+                .setFirstResult(Math.toIntExact(offset))
+                .setMaxResults(limit)
+                .getResultList();
+    }
+
+    @Override
+    public List<ShipmentSummary> findSummaries(Specification<Shipment> spec, Sort sort) {
+        return createSummaryQuery(spec, sort).getResultList();
+    }
+
+    private TypedQuery<ShipmentSummary> createSummaryQuery(Specification<Shipment> spec, Sort sort) {
+        CriteriaBuilder cb = entityManager.getCriteriaBuilder();
+        CriteriaQuery<ShipmentSummary> query = cb.createQuery(ShipmentSummary.class);
+        Root<Shipment> root = query.from(Shipment.class);
+        Join<Shipment, Shop> shop = root.join("shop", JoinType.INNER);
+        Join<Shipment, User> driver = root.join("driver", JoinType.LEFT);
+
+        // Totals are the columns maintained on the shipment, so no item rows are read
+        query.select(cb.construct(ShipmentSummary.class,
+                root.get("id"),
+                root.get("shipmentNumber"),
+                root.get("shipmentDate"),
+                root.get("status"),
+                shop.get("id"),
+                shop.get("code"),
+                shop.get("name"),
+                driver.get("id"),
+                driver.get("fullName"),
+                root.get("pdfPath"),
+                root.get("emailSent"),
+                root.get("whatsappSent"),
+                root.get("returnDate"),
+                root.get("shipmentTotal"),
+                root.get("shipmentItemCount"),
+                root.get("returnTotal"),
+                root.get("returnItemCount")
+        ));
+
+        applySpecification(spec, root, query, cb);
+        query.orderBy(QueryUtils.toOrders(sort, root, cb));
+
+        return entityManager.createQuery(query);
+    }
+
+    @Override
+    public List<ShipmentPdfInfo> findPdfInfos(Specification<Shipment> spec, Sort sort) {
+        CriteriaBuilder cb = entityManager.getCriteriaBuilder();
+        CriteriaQuery<ShipmentPdfInfo> query = cb.createQuery(ShipmentPdfInfo.class);
+        Root<Shipment> root = query.from(Shipment.class);
+
+        query.select(cb.construct(ShipmentPdfInfo.class,
+                root.get("id"),
+                root.get("shop").get("id"),
+                root.get("shipmentNumber"),
+                root.get("shipmentDate"),
+                root.get("pdfPath"),
+                root.get("pdfFingerprint")
+        ));
+
+        applySpecification(spec, root, query, cb);
+        query.orderBy(QueryUtils.toOrders(sort, root, cb));
+
+        return entityManager.createQuery(query).getResultList();
+    }
+
+    @Override
+    public List<Object[]> aggregateDailyTotals(Specification<Shipment> spec) {
+        CriteriaBuilder cb = entityManager.getCriteriaBuilder();
+        CriteriaQuery<Object[]> query = cb.createQuery(Object[].class);
+        Root<Shipment> root = query.from(Shipment.class);
+        Path<LocalDate> shipmentDate = root.get("shipmentDate");
+
+        // MIN(date) instead of the grouped column itself, so Hibernate does not render a positional
+        // GROUP BY (not supported by H2); both yield the same value per group
+        query.multiselect(
+                cb.least(shipmentDate),
+                cb.sum(root.<BigDecimal>get("shipmentTotal")),
+                cb.sum(root.<BigDecimal>get("returnTotal"))
+        );
+
+        applySpecification(spec, root, query, cb);
+
+        query.groupBy(shipmentDate);
+        query.orderBy(cb.asc(shipmentDate));
+
+        return entityManager.createQuery(query).getResultList();
+    }
+
+    @Override
+    public Stream<Object[]> streamExportRows(Specification<Shipment> spec) {
+        CriteriaBuilder cb = entityManager.getCriteriaBuilder();
+        CriteriaQuery<Object[]> query = cb.createQuery(Object[].class);
+        Root<Shipment> root = query.from(Shipment.class);
+        Join<Shipment, Shop> shop = root.join("shop", JoinType.INNER);
+        Join<Shipment, User> driver = root.join("driver", JoinType.LEFT);
+        Join<Shipment, ShipmentItem> item = root.join("items", JoinType.LEFT);
+        Join<ShipmentItem, Product> product = item.join("product", JoinType.LEFT);
+
+        // Scalar columns only: nothing is attached to the persistence context while streaming
+        query.multiselect(
+                root.get("shipmentNumber"),
+                root.get("shipmentDate"),
+                root.get("status"),
+                shop.get("code"),
+                shop.get("name"),
+                driver.get("fullName"),
+                item.get("itemType"),
+                product.get("code"),
+                product.get("name"),
+                item.get("quantity"),
+                product.get("unit"),
+                item.get("unitPrice"),
+                item.get("totalPrice"),
+                item.get("returnReason")
+        );
+
+        applySpecification(spec, root, query, cb);
+
+        query.orderBy(cb.desc(root.get("shipmentDate")), cb.desc(root.get("id")), cb.asc(item.get("id")));
+
+        return entityManager.createQuery(query)
+                .setHint(HibernateHints.HINT_FETCH_SIZE, EXPORT_FETCH_SIZE)
+                .setHint(HibernateHints.HINT_READ_ONLY, true)
+                .getResultStream();
+    }
+
+    private void applySpecification(Specification<Shipment> spec, Root<Shipment> root,
+                                    CriteriaQuery<?> query, CriteriaBuilder cb) {
+        if (spec == null) {
+            return;
+        }
+        Predicate filters = spec.toPredicate(root, query, cb);
+        if (filters != null) {
+            query.where(filters);
+        }
+    }
+
+    private BigDecimal orZero(BigDecimal value) {
+        return value != null ? value : BigDecimal.ZERO;
+    }
+
+    private int toInt(Number value) {
+        return value != null ? value.intValue() : 0;
+    }
+}
@@ -1,9 +1,14 @@
 package com.bakery.warehouse.repository;
 
 import com.bakery.warehouse.entity.Shop;
+import jakarta.persistence.LockModeType;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Lock;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
 import org.springframework.stereotype.Repository;
 
+import java.util.Collection;
 import java.util.List;
 import java.util.Optional;
 
@@ -17,4 +22,19 @@ public interface ShopRepository extends JpaRepository<Shop, Long> {
     List<Shop> findByCity(String city);
 
     boolean existsByCode(String code);
+
+    /**
+     * Lock the shops until the end of the transaction, in id order so that two transactions
+     * locking overlapping shops cannot deadlock (ShipmentRollupService serializes on them)
+     */
+    @Lock(LockModeType.PESSIMISTIC_WRITE)
+    @Query("SELECT s FROM Shop s WHERE s.id IN :ids ORDER BY s.id")
+    List<Shop> lockByIds(@Param("ids") Collection<Long> ids);
+
+    /**
+     * Lock every shop until the end of the transaction, in the same id order as lockByIds
+     */
+    @Lock(LockModeType.PESSIMISTIC_WRITE)
+    @Query("SELECT s FROM Shop s ORDER BY s.id")
+    List<Shop> lockAll();
 }
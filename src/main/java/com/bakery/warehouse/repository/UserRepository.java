@@ -2,6 +2,8 @@ package com.bakery.warehouse.repository;
 
 import com.bakery.warehouse.entity.User;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
 import org.springframework.stereotype.Repository;
 
 import java.util.List;
@@ -17,4 +19,10 @@ public interface UserRepository extends JpaRepository<User, Long> {
     List<User> findByActiveTrue();
 
     boolean existsByUsername(String username);
+
+    /**
+     * Returns: [active, role, shopId]
+     */
+    @Query("SELECT u.active, u.role, s.id FROM User u LEFT JOIN u.shop s WHERE u.id = :id")
+    List<Object[]> findStatusById(@Param("id") Long id);
 }
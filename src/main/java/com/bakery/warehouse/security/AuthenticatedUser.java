@@ -0,0 +1,104 @@
+package com.bakery.warehouse.security;
+
+import com.bakery.warehouse.entity.User;
+import lombok.Getter;
+import org.springframework.security.access.AccessDeniedException;
+import org.springframework.security.core.CredentialsContainer;
+import org.springframework.security.core.GrantedAuthority;
+import org.springframework.security.core.authority.SimpleGrantedAuthority;
+import org.springframework.security.core.userdetails.UserDetails;
+
+import java.util.Collection;
+import java.util.Collections;
+
+/**
+ * Security principal carrying the user id, role and shop id, so that authenticated requests
+ * need no user lookup. Built from the database at login and from the JWT claims afterwards.
+ */
+@Getter
+public class AuthenticatedUser implements UserDetails, CredentialsContainer {
+
+    private final Long id;
+    private final String username;
+    private String password;
+    private final User.UserRole role;
+    private final Long shopId;
+    private final boolean active;
+
+    public AuthenticatedUser(Long id, String username, String password, User.UserRole role, Long shopId, boolean active) {
+        this.id = id;
+        this.username = username;
+        this.password = password;
+        this.role = role;
+        this.shopId = shopId;
+        this.active = active;
+    }
+
+    public static AuthenticatedUser of(User user) {
+        return new AuthenticatedUser(
+                user.getId(),
+                user.getUsername(),
+                user.getPassword(),
+                user.getRole(),
+                user.getShop() != null ? user.getShop().getId() : null,
+                Boolean.TRUE.equals(user.getActive())
+        );
+    }
+
+    public boolean isShopUser() {
+        return role == User.UserRole.SHOP;
+    }
+
+    /**
+     * SHOP users without an assigned shop may not see any shipment data
+     */
+    public boolean hasShopAccess() {
+        return !isShopUser() || shopId != null;
+    }
+
+    /**
+     * Shop filter to apply for this user: SHOP users are always restricted to their own shop,
+     * other roles get the requested shop (null for all shops)
+     *
+     * @throws AccessDeniedException for SHOP users without an assigned shop
+     */
+    public Long scopeShopId(Long requestedShopId) {
+        if (!isShopUser()) {
+            return requestedShopId;
+        }
+        if (shopId == null) {
+            throw new AccessDeniedException("Nessun negozio associato all'utente");
+        }
+        return shopId;
+    }
+
+    @Override
+    public Collection<? extends GrantedAuthority> getAuthorities() {
+        return Collections.singletonList(new SimpleGrantedAuthority("ROLE_" + role.name()));
+    }
+
+    @Override
+    public boolean isAccountNonExpired() {
+        return true;
+    }
+
+    @Override
+    public boolean isAccountNonLocked() {
+        return true;
+    }
+
+    @Override
+    public boolean isCredentialsNonExpired() {
+        return true;
+    }
+
+    @Override
+    public boolean isEnabled() {
+        return active;
+    }
+
+    @Override
+    public void eraseCredentials() {
+        password = null;
+    }
+}
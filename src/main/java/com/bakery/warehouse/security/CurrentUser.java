@@ -0,0 +1,17 @@
+package com.bakery.warehouse.security;
+
+import java.lang.annotation.Documented;
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * Injects the authenticated user (id, role, shop id) of the current request into a controller
+ * method parameter of type {@link AuthenticatedUser}, without loading it from the database
+ */
+@Target(ElementType.PARAMETER)
+@Retention(RetentionPolicy.RUNTIME)
+@Documented
+public @interface CurrentUser {
+}
@@ -1,5 +1,6 @@
 package com.bakery.warehouse.security;
 
+import io.jsonwebtoken.Claims;
 import jakarta.servlet.FilterChain;
 import jakarta.servlet.ServletException;
 import jakarta.servlet.http.HttpServletRequest;
@@ -22,6 +23,7 @@ public class JwtAuthenticationFilter extends OncePerRequestFilter {
 
     private final JwtTokenProvider tokenProvider;
     private final UserDetailsService userDetailsService;
+    private final UserStatusCache userStatusCache;
 
     @Override
     protected void doFilterInternal(HttpServletRequest request,
@@ -32,22 +34,28 @@ public class JwtAuthenticationFilter extends OncePerRequestFilter {
             logger.debug("JWT Token extracted: " + (jwt != null ? "Present (length: " + jwt.length() + ")" : "Not found"));
 
             if (StringUtils.hasText(jwt)) {
-                boolean isValid = tokenProvider.validateToken(jwt);
-                logger.debug("Token validation result: " + isValid);
+                Claims claims = tokenProvider.parseToken(jwt);
+                logger.debug("Token validation result: " + (claims != null));
 
-                if (isValid) {
-                    String username = tokenProvider.getUsernameFromToken(jwt);
-                    logger.debug("Username from token: " + username);
+                if (claims != null) {
+                    UserDetails userDetails = tokenProvider.getUserFromClaims(claims);
+                    if (userDetails == null) {
+                        // Token issued before user claims were added: load the user once
+                        userDetails = userDetailsService.loadUserByUsername(claims.getSubject());
+                    }
 
-                    UserDetails userDetails = userDetailsService.loadUserByUsername(username);
-                    logger.debug("User details loaded: " + userDetails.getUsername() + ", authorities: " + userDetails.getAuthorities());
+                    if (isStillValid(userDetails)) {
+                        logger.debug("User authenticated: " + userDetails.getUsername() + ", authorities: " + userDetails.getAuthorities());
 
-                    UsernamePasswordAuthenticationToken authentication =
-                            new UsernamePasswordAuthenticationToken(userDetails, null, userDetails.getAuthorities());
-                    authentication.setDetails(new WebAuthenticationDetailsSource().buildDetails(request));
+                        UsernamePasswordAuthenticationToken authentication =
+                                new UsernamePasswordAuthenticationToken(userDetails, null, userDetails.getAuthorities());
+                        authentication.setDetails(new WebAuthenticationDetailsSource().buildDetails(request));
 
-                    SecurityContextHolder.getContext().setAuthentication(authentication);
-                    logger.debug("Authentication set in security context");
+                        SecurityContextHolder.getContext().setAuthentication(authentication);
+                        logger.debug("Authentication set in security context");
+                    } else {
+                        logger.debug("User disabled or changed since the token was issued: " + userDetails.getUsername());
+                    }
                 }
             }
         } catch (Exception ex) {
@@ -57,6 +65,13 @@ public class JwtAuthenticationFilter extends OncePerRequestFilter {
         filterChain.doFilter(request, response);
     }
 
+    private boolean isStillValid(UserDetails userDetails) {
+        if (userDetails instanceof AuthenticatedUser user) {
+            return userStatusCache.isValid(user);
+        }
+        return userDetails.isEnabled();
+    }
+
     private String getJwtFromRequest(HttpServletRequest request) {
         String bearerToken = request.getHeader("Authorization");
         if (StringUtils.hasText(bearerToken) && bearerToken.startsWith("Bearer ")) {
@@ -1,7 +1,9 @@
 package com.bakery.warehouse.security;
 
+import com.bakery.warehouse.entity.User;
 import io.jsonwebtoken.*;
 import io.jsonwebtoken.security.Keys;
+import jakarta.annotation.PostConstruct;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.security.core.Authentication;
 import org.springframework.stereotype.Component;
@@ -13,15 +15,26 @@ import java.util.Date;
 @Component
 public class JwtTokenProvider {
 
+    private static final String CLAIM_USER_ID = "uid";
+    private static final String CLAIM_ROLE = "role";
+    private static final String CLAIM_SHOP_ID = "shopId";
+
     @Value("${app.jwt.secret}")
     private String jwtSecret;
 
     @Value("${app.jwt.expiration}")
     private long jwtExpiration;
 
-    private SecretKey getSigningKey() {
-        byte[] keyBytes = jwtSecret.getBytes(StandardCharsets.UTF_8);
-        return Keys.hmacShaKeyFor(keyBytes);
+    // Built once: both are immutable and thread-safe
+    private SecretKey signingKey;
+    private JwtParser parser;
+
+    @PostConstruct
+    void init() {
+        signingKey = Keys.hmacShaKeyFor(jwtSecret.getBytes(StandardCharsets.UTF_8));
+        parser = Jwts.parserBuilder()
+                .setSigningKey(signingKey)
+                .build();
     }
 
     public String generateToken(Authentication authentication) {
@@ -29,33 +42,57 @@ public class JwtTokenProvider {
         Date now = new Date();
         Date expiryDate = new Date(now.getTime() + jwtExpiration);
 
-        return Jwts.builder()
+        JwtBuilder builder = Jwts.builder()
                 .setSubject(username)
                 .setIssuedAt(now)
-                .setExpiration(expiryDate)
-                .signWith(getSigningKey())
-                .compact();
-    }
+                .setExpiration(expiryDate);
 
-    public String getUsernameFromToken(String token) {
-        Claims claims = Jwts.parserBuilder()
-                .setSigningKey(getSigningKey())
-                .build()
-                .parseClaimsJws(token)
-                .getBody();
+        if (authentication.getPrincipal() instanceof AuthenticatedUser user) {
+            builder.claim(CLAIM_USER_ID, user.getId())
+                    .claim(CLAIM_ROLE, user.getRole().name());
+            if (user.getShopId() != null) {
+                builder.claim(CLAIM_SHOP_ID, user.getShopId());
+            }
+        }
 
-        return claims.getSubject();
+        return builder
+                .signWith(signingKey)
+                .compact();
     }
 
-    public boolean validateToken(String authToken) {
+    /**
+     * Verify the signature and expiry of the token and return its claims
+     *
+     * @return the claims, or null if the token is not valid
+     */
+    public Claims parseToken(String token) {
         try {
-            Jwts.parserBuilder()
-                    .setSigningKey(getSigningKey())
-                    .build()
-                    .parseClaimsJws(authToken);
-            return true;
+            return parser.parseClaimsJws(token).getBody();
         } catch (JwtException | IllegalArgumentException e) {
-            return false;
+            return null;
         }
     }
+
+    /**
+     * Build the principal from the claims of a parsed token
+     *
+     * @return the principal, or null for tokens issued without user claims
+     */
+    public AuthenticatedUser getUserFromClaims(Claims claims) {
+        Number userId = claims.get(CLAIM_USER_ID, Number.class);
+        String role = claims.get(CLAIM_ROLE, String.class);
+        if (userId == null || role == null) {
+            return null;
+        }
+
+        Number shopId = claims.get(CLAIM_SHOP_ID, Number.class);
+        return new AuthenticatedUser(
+                userId.longValue(),
+                claims.getSubject(),
+                null,
+                User.UserRole.valueOf(role),
+                shopId != null ? shopId.longValue() : null,
+                true
+        );
+    }
 }
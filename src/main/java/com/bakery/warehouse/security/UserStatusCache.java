@@ -0,0 +1,73 @@
+package com.bakery.warehouse.security;
+
+import com.bakery.warehouse.entity.User;
+import com.bakery.warehouse.repository.UserRepository;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Short-lived cache of the current active flag, role and shop of each user, used to check
+ * JWT principals without a query per request. Deactivating a user or changing their role/shop
+ * rejects their existing tokens within the TTL (immediately if the entry is evicted).
+ */
+@Component
+public class UserStatusCache {
+
+    private final UserRepository userRepository;
+    private final long ttlMillis;
+
+    private final Map<Long, CachedStatus> statuses = new ConcurrentHashMap<>();
+
+    public UserStatusCache(UserRepository userRepository,
+                           @Value("${app.jwt.user-status-ttl:30000}") long ttlMillis) {
+        this.userRepository = userRepository;
+        this.ttlMillis = ttlMillis;
+    }
+
+    /**
+     * @return true if the user still exists, is active and has the role and shop of the principal
+     */
+    public boolean isValid(AuthenticatedUser principal) {
+        UserStatus status = getStatus(principal.getId());
+        return status != null
+                && status.active()
+                && status.role() == principal.getRole()
+                && Objects.equals(status.shopId(), principal.getShopId());
+    }
+
+    public void evict(Long userId) {
+        statuses.remove(userId);
+    }
+
+    private UserStatus getStatus(Long userId) {
+        long now = System.currentTimeMillis();
+        CachedStatus cached = statuses.get(userId);
+        if (cached != null && cached.expiresAt() > now) {
+            return cached.status();
+        }
+
+        UserStatus status = loadStatus(userId);
+        statuses.put(userId, new CachedStatus(status, now + ttlMillis));
+        return status;
+    }
+
+    private UserStatus loadStatus(Long userId) {
+        List<Object[]> rows = userRepository.findStatusById(userId);
+        if (rows.isEmpty()) {
+            return null;
+        }
+        Object[] row = rows.get(0);
+        return new UserStatus(Boolean.TRUE.equals(row[0]), (User.UserRole) row[1], (Long) row[2]);
+    }
+
+    private record UserStatus(boolean active, User.UserRole role, Long shopId) {
+    }
+
+    private record CachedStatus(UserStatus status, long expiresAt) {
+    }
+}
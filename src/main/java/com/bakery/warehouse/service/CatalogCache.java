@@ -0,0 +1,132 @@
+package com.bakery.warehouse.service;
+
+import com.bakery.warehouse.entity.Product;
+import com.bakery.warehouse.entity.Shop;
+import com.bakery.warehouse.repository.ProductRepository;
+import com.bakery.warehouse.repository.ShopRepository;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.TransactionDefinition;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Function;
+
+/**
+ * In-memory copy of the product and shop catalogs (a few hundred rows, rarely changed).
+ * Each catalog is an immutable snapshot replaced atomically on refresh, so readers never lock.
+ * The controllers that write products and shops refresh the matching snapshot after every change.
+ * Snapshots are loaded in their own read-only transaction, so a refresh triggered inside a caller's
+ * transaction never publishes that caller's managed instances or uncommitted rows.
+ * Cached entities are detached and shared: treat them as read-only.
+ */
+@Component
+public class CatalogCache {
+
+    private final ProductRepository productRepository;
+    private final ShopRepository shopRepository;
+    private final TransactionTemplate snapshotTransaction;
+
+    private volatile Snapshot<Product> products;
+    private volatile Snapshot<Shop> shops;
+
+    public CatalogCache(ProductRepository productRepository, ShopRepository shopRepository,
+                        PlatformTransactionManager transactionManager) {
+        this.productRepository = productRepository;
+        this.shopRepository = shopRepository;
+        this.snapshotTransaction = new TransactionTemplate(transactionManager);
+        this.snapshotTransaction.setPropagationBehavior(TransactionDefinition.PROPAGATION_REQUIRES_NEW);
+        this.snapshotTransaction.setReadOnly(true);
+    }
+
+    public List<Product> getActiveProducts() {
+        return products().active();
+    }
+
+    /**
+     * @throws RuntimeException if the product does not exist
+     */
+    public Product getProduct(Long id) {
+        Product product = findProduct(id);
+        if (product == null) {
+            throw new RuntimeException("Product not found");
+        }
+        return product;
+    }
+
+    /**
+     * @return the product, or null if it does not exist
+     */
+    public Product findProduct(Long id) {
+        Product product = products().byId().get(id);
+        // A miss may be a row written outside the controllers: reload once before giving up
+        if (product == null && id != null && productRepository.existsById(id)) {
+            product = refreshProducts().byId().get(id);
+        }
+        return product;
+    }
+
+    public List<Shop> getActiveShops() {
+        return shops().active();
+    }
+
+    /**
+     * @throws RuntimeException if the shop does not exist
+     */
+    public Shop getShop(Long id) {
+        Shop shop = findShop(id);
+        if (shop == null) {
+            throw new RuntimeException("Shop not found");
+        }
+        return shop;
+    }
+
+    /**
+     * @return the shop, or null if it does not exist
+     */
+    public Shop findShop(Long id) {
+        Shop shop = shops().byId().get(id);
+        if (shop == null && id != null && shopRepository.existsById(id)) {
+            shop = refreshShops().byId().get(id);
+        }
+        return shop;
+    }
+
+    public synchronized Snapshot<Product> refreshProducts() {
+        products = snapshotTransaction.execute(status ->
+                Snapshot.of(productRepository.findAll(), Product::getId, Product::getActive));
+        return products;
+    }
+
+    public synchronized Snapshot<Shop> refreshShops() {
+        shops = snapshotTransaction.execute(status ->
+                Snapshot.of(shopRepository.findAll(), Shop::getId, Shop::getActive));
+        return shops;
+    }
+
+    private Snapshot<Product> products() {
+        Snapshot<Product> current = products;
+        return current != null ? current : refreshProducts();
+    }
+
+    private Snapshot<Shop> shops() {
+        Snapshot<Shop> current = shops;
+        return current != null ? current : refreshShops();
+    }
+
+    public record Snapshot<T>(Map<Long, T> byId, List<T> active) {
+
+        static <T> Snapshot<T> of(List<T> rows, Function<T, Long> idOf, Function<T, Boolean> activeOf) {
+            Map<Long, T> byId = new HashMap<>();
+            for (T row : rows) {
+                byId.put(idOf.apply(row), row);
+            }
+            List<T> active = rows.stream()
+                    .filter(row -> Boolean.TRUE.equals(activeOf.apply(row)))
+                    .toList();
+            return new Snapshot<>(Map.copyOf(byId), active);
+        }
+    }
+}
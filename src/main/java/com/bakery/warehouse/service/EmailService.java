@@ -1,22 +1,51 @@
 package com.bakery.warehouse.service;
 
 import com.bakery.warehouse.entity.Shipment;
+import com.bakery.warehouse.entity.Shop;
+import com.bakery.warehouse.entity.User;
 import jakarta.mail.MessagingException;
 import jakarta.mail.internet.MimeMessage;
 import lombok.RequiredArgsConstructor;
-import org.springframework.core.io.FileSystemResource;
-import org.springframework.mail.javamail.JavaMailSender;
+import org.springframework.http.MediaType;
 import org.springframework.mail.javamail.MimeMessageHelper;
 import org.springframework.stereotype.Service;
 
-import java.io.File;
 import java.time.format.DateTimeFormatter;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
 
 @Service
 @RequiredArgsConstructor
 public class EmailService {
 
-    private final JavaMailSender mailSender;
+    private static final DateTimeFormatter DATE_FORMAT = DateTimeFormatter.ofPattern("dd/MM/yyyy");
+
+    // Fixed parts of the email bodies, built once
+    private static final String BODY_HEADER = "<html><body><h2>Documento di Trasporto</h2>";
+    private static final String DIGEST_HEADER = "<html><body><h2>Documenti di Trasporto</h2>";
+    private static final String NUMBER_LABEL = "<p><strong>Numero:</strong> ";
+    private static final String DATE_LABEL = "<p><strong>Data:</strong> ";
+    private static final String SHOP_LABEL = "<p><strong>Negozio:</strong> ";
+    private static final String ADDRESS_LABEL = "<p><strong>Indirizzo:</strong> ";
+    private static final String DRIVER_LABEL = "<p><strong>Autista:</strong> ";
+    private static final String PARAGRAPH_END = "</p>";
+    private static final String DIGEST_TABLE_HEADER = "<table border=\"1\" cellpadding=\"4\" cellspacing=\"0\">"
+            + "<tr><th>Numero</th><th>Data</th><th>Autista</th></tr>";
+    private static final String SIGNATURE = "<p>Cordiali saluti,<br>Piccolo forno a legna - Manoppello</p></body></html>";
+    private static final String BODY_FOOTER = "<p>Trova allegato il documento di trasporto in formato PDF.</p>" + SIGNATURE;
+    private static final String DIGEST_FOOTER = "<p>Trova allegati i documenti di trasporto in formato PDF.</p>" + SIGNATURE;
+    private static final int BODY_CAPACITY = 512;
+
+    private final PooledMailSender mailSender;
+    private final PdfStorageService pdfStorageService;
+
+    /**
+     * SMTP send times and connection reuse (see PooledMailSender)
+     */
+    public Map<String, Object> getSmtpStats() {
+        return mailSender.stats();
+    }
 
     public void sendShipmentEmail(Shipment shipment) throws MessagingException {
         MimeMessage message = mailSender.createMimeMessage();
@@ -24,7 +53,7 @@ public class EmailService {
 
         String shopEmail = shipment.getShop().getEmail();
         if (shopEmail == null || shopEmail.isEmpty()) {
-            throw new RuntimeException("Shop email not configured");
+            throw new UndeliverableException("Shop email not configured");
         }
 
         helper.setTo(shopEmail);
@@ -38,37 +67,94 @@ public class EmailService {
         String emailBody = buildEmailBody(shipment);
         helper.setText(emailBody, true);
 
-        if (shipment.getPdfPath() != null) {
-            File pdfFile = new File(shipment.getPdfPath());
-            if (pdfFile.exists()) {
-                FileSystemResource file = new FileSystemResource(pdfFile);
-                helper.addAttachment("DDT_" + shipment.getShipmentNumber() + ".pdf", file);
-            }
+        attachPdf(helper, shipment);
+
+        mailSender.send(message);
+    }
+
+    /**
+     * One email for several shipments of the same shop, with all their DDTs attached (digest mode)
+     */
+    public void sendShipmentDigestEmail(List<Shipment> shipments) throws MessagingException {
+        MimeMessage message = mailSender.createMimeMessage();
+        MimeMessageHelper helper = new MimeMessageHelper(message, true, "UTF-8");
+
+        Shop shop = shipments.get(0).getShop();
+        String shopEmail = shop.getEmail();
+        if (shopEmail == null || shopEmail.isEmpty()) {
+            throw new UndeliverableException("Shop email not configured");
+        }
+
+        helper.setTo(shopEmail);
+
+        String[] driverEmails = shipments.stream()
+                .map(Shipment::getDriver)
+                .filter(driver -> driver != null && driver.getEmail() != null)
+                .map(User::getEmail)
+                .distinct()
+                .toArray(String[]::new);
+        if (driverEmails.length > 0) {
+            helper.setCc(driverEmails);
+        }
+
+        List<Shipment> sorted = shipments.stream()
+                .sorted(Comparator.comparing(Shipment::getShipmentDate).thenComparing(Shipment::getShipmentNumber))
+                .toList();
+
+        helper.setSubject("Documenti di Trasporto - " + shop.getName() + " (" + sorted.size() + ")");
+        helper.setText(buildDigestBody(shop, sorted), true);
+
+        for (Shipment shipment : sorted) {
+            attachPdf(helper, shipment);
         }
 
         mailSender.send(message);
     }
 
+    private void attachPdf(MimeMessageHelper helper, Shipment shipment) throws MessagingException {
+        String pdfPath = shipment.getPdfPath();
+        if (pdfStorageService.exists(pdfPath)) {
+            // The PDF may be packed in a monthly archive: read it through the storage
+            helper.addAttachment("DDT_" + shipment.getShipmentNumber() + ".pdf",
+                    () -> pdfStorageService.open(pdfPath), MediaType.APPLICATION_PDF_VALUE);
+        }
+    }
+
     private String buildEmailBody(Shipment shipment) {
-        StringBuilder body = new StringBuilder();
-        body.append("<html><body>");
-        body.append("<h2>Documento di Trasporto</h2>");
-        body.append("<p><strong>Numero:</strong> ").append(shipment.getShipmentNumber()).append("</p>");
-        body.append("<p><strong>Data:</strong> ")
-                .append(shipment.getShipmentDate().format(DateTimeFormatter.ofPattern("dd/MM/yyyy")))
-                .append("</p>");
-        body.append("<p><strong>Negozio:</strong> ").append(shipment.getShop().getName()).append("</p>");
-        body.append("<p><strong>Indirizzo:</strong> ").append(shipment.getShop().getAddress())
-                .append(", ").append(shipment.getShop().getCity()).append("</p>");
+        StringBuilder body = new StringBuilder(BODY_CAPACITY);
+        body.append(BODY_HEADER);
+        body.append(NUMBER_LABEL).append(shipment.getShipmentNumber()).append(PARAGRAPH_END);
+        body.append(DATE_LABEL).append(shipment.getShipmentDate().format(DATE_FORMAT)).append(PARAGRAPH_END);
+        appendShop(body, shipment.getShop());
 
         if (shipment.getDriver() != null) {
-            body.append("<p><strong>Autista:</strong> ").append(shipment.getDriver().getFullName()).append("</p>");
+            body.append(DRIVER_LABEL).append(shipment.getDriver().getFullName()).append(PARAGRAPH_END);
         }
 
-        body.append("<p>Trova allegato il documento di trasporto in formato PDF.</p>");
-        body.append("<p>Cordiali saluti,<br>Piccolo forno a legna - Manoppello</p>");
-        body.append("</body></html>");
+        body.append(BODY_FOOTER);
+        return body.toString();
+    }
+
+    private String buildDigestBody(Shop shop, List<Shipment> shipments) {
+        StringBuilder body = new StringBuilder(BODY_CAPACITY + shipments.size() * 100);
+        body.append(DIGEST_HEADER);
+        appendShop(body, shop);
+
+        body.append(DIGEST_TABLE_HEADER);
+        for (Shipment shipment : shipments) {
+            body.append("<tr><td>").append(shipment.getShipmentNumber());
+            body.append("</td><td>").append(shipment.getShipmentDate().format(DATE_FORMAT));
+            body.append("</td><td>").append(shipment.getDriver() != null ? shipment.getDriver().getFullName() : "");
+            body.append("</td></tr>");
+        }
+        body.append("</table>");
 
+        body.append(DIGEST_FOOTER);
         return body.toString();
     }
+
+    private void appendShop(StringBuilder body, Shop shop) {
+        body.append(SHOP_LABEL).append(shop.getName()).append(PARAGRAPH_END);
+        body.append(ADDRESS_LABEL).append(shop.getAddress()).append(", ").append(shop.getCity()).append(PARAGRAPH_END);
+    }
 }
@@ -0,0 +1,235 @@
+package com.bakery.warehouse.service;
+
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+import org.springframework.http.HttpHeaders;
+import org.springframework.stereotype.Service;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+/**
+ * Serves files from disk with validators (ETag, Last-Modified), conditional requests (304)
+ * and single byte ranges (206). The body of a file is sent with sendfile when the servlet container supports it,
+ * otherwise with FileChannel.transferTo, so the file content is never copied through the heap.
+ * The container reopens the file by name after the request returns: only serve paths whose content never
+ * changes (see PdfStorageService).
+ */
+@Service
+public class FileDownloadService {
+
+    // Tomcat's sendfile hand-off: the connector sends the file itself after the request returns
+    private static final String SENDFILE_SUPPORT = "org.apache.tomcat.sendfile.support";
+    private static final String SENDFILE_FILENAME = "org.apache.tomcat.sendfile.filename";
+    private static final String SENDFILE_START = "org.apache.tomcat.sendfile.start";
+    private static final String SENDFILE_END = "org.apache.tomcat.sendfile.end";
+
+    // Clients must revalidate every time, but only their own cache may keep the file
+    private static final String CACHE_CONTROL = "private, no-cache";
+
+    /**
+     * Write the file (or the requested range of it) to the response
+     *
+     * @param fingerprint  content fingerprint, sent as a strong ETag
+     * @param downloadName file name proposed to the client
+     */
+    public void serve(HttpServletRequest request, HttpServletResponse response, Path file,
+                      String fingerprint, String contentType, String downloadName) throws IOException {
+
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            long[] range = prepare(request, response, channel.size(), file.toFile().lastModified(),
+                    fingerprint, contentType, downloadName);
+            if (range == null) {
+                return;
+            }
+            long start = range[0];
+            long end = range[1];
+
+            if (Boolean.TRUE.equals(request.getAttribute(SENDFILE_SUPPORT))) {
+                request.setAttribute(SENDFILE_FILENAME, file.toAbsolutePath().toString());
+                request.setAttribute(SENDFILE_START, start);
+                request.setAttribute(SENDFILE_END, end + 1);
+                return;
+            }
+
+            WritableByteChannel out = Channels.newChannel(response.getOutputStream());
+            long position = start;
+            while (position <= end) {
+                position += channel.transferTo(position, end + 1 - position, out);
+            }
+        }
+    }
+
+    /**
+     * Same as serve(Path), for an entry of a ZIP archive. A compressed entry has to be inflated,
+     * so its body goes through the heap in small buffers; a range skips the bytes before its start.
+     */
+    public void serve(HttpServletRequest request, HttpServletResponse response, ZipFile archive, ZipEntry entry,
+                      String fingerprint, String contentType, String downloadName) throws IOException {
+
+        long[] range = prepare(request, response, entry.getSize(), entry.getTime(),
+                fingerprint, contentType, downloadName);
+        if (range == null) {
+            return;
+        }
+
+        try (InputStream in = archive.getInputStream(entry)) {
+            in.skipNBytes(range[0]);
+            OutputStream out = response.getOutputStream();
+            byte[] buffer = new byte[8192];
+            long remaining = range[1] - range[0] + 1;
+            while (remaining > 0) {
+                int read = in.read(buffer, 0, (int) Math.min(buffer.length, remaining));
+                if (read < 0) {
+                    throw new EOFException("Unexpected end of " + entry.getName());
+                }
+                out.write(buffer, 0, read);
+                remaining -= read;
+            }
+        }
+    }
+
+    /**
+     * Set the headers and status for the request
+     *
+     * @return {start, end} (inclusive) of the bytes to send, or null if no body must be sent
+     */
+    private long[] prepare(HttpServletRequest request, HttpServletResponse response, long length, long modified,
+                           String fingerprint, String contentType, String downloadName) {
+        // HTTP dates have a resolution of one second
+        long lastModified = modified / 1000 * 1000;
+        String eTag = "\"" + fingerprint + "\"";
+
+        response.setHeader(HttpHeaders.ETAG, eTag);
+        response.setDateHeader(HttpHeaders.LAST_MODIFIED, lastModified);
+        response.setHeader(HttpHeaders.CACHE_CONTROL, CACHE_CONTROL);
+        response.setHeader(HttpHeaders.ACCEPT_RANGES, "bytes");
+
+        if (isNotModified(request, eTag, lastModified)) {
+            response.setStatus(HttpServletResponse.SC_NOT_MODIFIED);
+            return null;
+        }
+
+        long start = 0;
+        long end = length - 1;
+        String range = request.getHeader(HttpHeaders.RANGE);
+        if (range != null && rangeApplies(request, eTag, lastModified)) {
+            long[] bounds = parseRange(range, length);
+            if (bounds != null && bounds.length == 0) {
+                response.setStatus(HttpServletResponse.SC_REQUESTED_RANGE_NOT_SATISFIABLE);
+                response.setHeader(HttpHeaders.CONTENT_RANGE, "bytes */" + length);
+                return null;
+            }
+            if (bounds != null) {
+                start = bounds[0];
+                end = bounds[1];
+                response.setStatus(HttpServletResponse.SC_PARTIAL_CONTENT);
+                response.setHeader(HttpHeaders.CONTENT_RANGE, "bytes " + start + "-" + end + "/" + length);
+            }
+        }
+
+        long count = end - start + 1;
+        response.setContentType(contentType);
+        response.setHeader(HttpHeaders.CONTENT_DISPOSITION, "attachment; filename=\"" + downloadName + "\"");
+        response.setContentLengthLong(count);
+
+        if ("HEAD".equals(request.getMethod()) || count <= 0) {
+            return null;
+        }
+        return new long[]{start, end};
+    }
+
+    private boolean isNotModified(HttpServletRequest request, String eTag, long lastModified) {
+        String ifNoneMatch = request.getHeader(HttpHeaders.IF_NONE_MATCH);
+        if (ifNoneMatch != null) {
+            // If-None-Match uses the weak comparison and takes precedence over If-Modified-Since
+            for (String candidate : ifNoneMatch.split(",")) {
+                String tag = candidate.trim();
+                if (tag.equals("*") || stripWeak(tag).equals(eTag)) {
+                    return true;
+                }
+            }
+            return false;
+        }
+        long ifModifiedSince = dateHeader(request, HttpHeaders.IF_MODIFIED_SINCE);
+        return ifModifiedSince >= 0 && lastModified <= ifModifiedSince;
+    }
+
+    /**
+     * If-Range: the range is only served if the client's copy is still current, otherwise the whole file
+     */
+    private boolean rangeApplies(HttpServletRequest request, String eTag, long lastModified) {
+        String ifRange = request.getHeader(HttpHeaders.IF_RANGE);
+        if (ifRange == null) {
+            return true;
+        }
+        if (ifRange.startsWith("\"") || ifRange.startsWith("W/")) {
+            // Strong comparison: a weak validator never matches
+            return ifRange.equals(eTag);
+        }
+        return lastModified == dateHeader(request, HttpHeaders.IF_RANGE);
+    }
+
+    /**
+     * Parse a single "bytes=" range against the file length
+     *
+     * @return {start, end} (inclusive), an empty array if the range cannot be satisfied,
+     * or null to ignore the header and send the whole file (syntax not understood, multiple ranges)
+     */
+    private long[] parseRange(String range, long length) {
+        if (!range.startsWith("bytes=") || range.indexOf(',') >= 0) {
+            return null;
+        }
+        String spec = range.substring("bytes=".length()).trim();
+        int dash = spec.indexOf('-');
+        if (dash < 0) {
+            return null;
+        }
+
+        try {
+            String first = spec.substring(0, dash).trim();
+            String last = spec.substring(dash + 1).trim();
+            if (first.isEmpty()) {
+                // Suffix range: the last N bytes
+                long suffix = Long.parseLong(last);
+                if (suffix <= 0 || length == 0) {
+                    return new long[0];
+                }
+                return new long[]{Math.max(0, length - suffix), length - 1};
+            }
+
+            long start = Long.parseLong(first);
+            long end = last.isEmpty() ? length - 1 : Math.min(Long.parseLong(last), length - 1);
+            if (start < 0 || (!last.isEmpty() && Long.parseLong(last) < start)) {
+                return null;
+            }
+            if (start >= length) {
+                return new long[0];
+            }
+            return new long[]{start, end};
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+
+    private String stripWeak(String tag) {
+        return tag.startsWith("W/") ? tag.substring(2) : tag;
+    }
+
+    private long dateHeader(HttpServletRequest request, String name) {
+        try {
+            return request.getDateHeader(name);
+        } catch (IllegalArgumentException e) {
+            return -1;
+        }
+    }
+}
@@ -0,0 +1,414 @@
+package com.bakery.warehouse.service;
+
+import com.bakery.warehouse.dto.ShipmentPdfInfo;
+import com.bakery.warehouse.entity.Shipment;
+import com.bakery.warehouse.entity.ShipmentNotification;
+import com.bakery.warehouse.event.NotificationsQueuedEvent;
+import com.bakery.warehouse.repository.ShipmentNotificationRepository;
+import com.bakery.warehouse.repository.ShipmentRepository;
+import jakarta.annotation.PreDestroy;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Propagation;
+import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.event.TransactionalEventListener;
+
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Delivers shipment notifications (email, WhatsApp) outside the transactions that make them due.
+ * Callers only write outbox records (enqueue), in their own transaction; once it commits the records
+ * are sent on the worker pool of their channel, so a slow SMTP server never holds up WhatsApp messages.
+ * A failed attempt is retried with exponential backoff; after app.notifications.max-attempts the record
+ * becomes a dead letter (FAILED), listed by the admin endpoint until retried there. An error no retry can fix
+ * (a missing address, a message the provider refuses) makes it a dead letter at once.
+ * A WhatsApp notification has a record for the shop and one for the driver, each retried on its own.
+ * A periodic sweep picks up due retries and whatever a full queue or a restart left behind. A worker
+ * claims a record before sending it, so two workers never send the same one; an attempt interrupted
+ * by a crash is retried once its claim expires. On shutdown the queues are drained for a while.
+ * Emails for a shop in digest mode (Shop.emailDigest) wait until the end of the shop's digest window,
+ * then all of them go out as one message with every DDT attached.
+ */
+@Service
+public class NotificationDispatcher {
+
+    // Records loaded per sweep; the rest are picked up by the next one
+    private static final int SWEEP_BATCH = 100;
+
+    private static final int MAX_ERROR_LENGTH = 1000;
+
+    private final ShipmentNotificationRepository notificationRepository;
+    private final ShipmentRepository shipmentRepository;
+    private final PdfRenderService pdfRenderService;
+    private final EmailService emailService;
+    private final WhatsAppService whatsAppService;
+    private final ApplicationEventPublisher eventPublisher;
+    private final Map<ShipmentNotification.Channel, ThreadPoolExecutor> executors =
+            new EnumMap<>(ShipmentNotification.Channel.class);
+    private final int maxAttempts;
+    private final Duration retryDelay;
+    private final Duration maxRetryDelay;
+    private final Duration claimTimeout;
+    private final Duration drainTimeout;
+    private final Duration digestWindow;
+
+    // Records handed to a pool and not finished yet, so a sweep does not queue them twice
+    private final Set<Long> inFlight = ConcurrentHashMap.newKeySet();
+
+    // Shops whose digest a worker is collecting, so two workers do not split it into two emails
+    private final Set<Long> digestsInFlight = ConcurrentHashMap.newKeySet();
+
+    public NotificationDispatcher(
+            ShipmentNotificationRepository notificationRepository,
+            ShipmentRepository shipmentRepository,
+            PdfRenderService pdfRenderService,
+            EmailService emailService,
+            WhatsAppService whatsAppService,
+            ApplicationEventPublisher eventPublisher,
+            @Value("${app.notifications.email.threads:2}") int emailThreads,
+            @Value("${app.notifications.email.queue-capacity:500}") int emailQueueCapacity,
+            @Value("${app.notifications.whatsapp.threads:8}") int whatsappThreads,
+            @Value("${app.notifications.whatsapp.queue-capacity:500}") int whatsappQueueCapacity,
+            @Value("${app.notifications.max-attempts:8}") int maxAttempts,
+            @Value("${app.notifications.retry-delay:30000}") long retryDelayMillis,
+            @Value("${app.notifications.max-retry-delay:3600000}") long maxRetryDelayMillis,
+            @Value("${app.notifications.claim-timeout:600000}") long claimTimeoutMillis,
+            @Value("${app.notifications.drain-timeout:20000}") long drainTimeoutMillis,
+            @Value("${app.notifications.digest-window:3600000}") long digestWindowMillis) {
+        this.notificationRepository = notificationRepository;
+        this.shipmentRepository = shipmentRepository;
+        this.pdfRenderService = pdfRenderService;
+        this.emailService = emailService;
+        this.whatsAppService = whatsAppService;
+        this.eventPublisher = eventPublisher;
+        this.maxAttempts = maxAttempts;
+        this.retryDelay = Duration.ofMillis(retryDelayMillis);
+        this.maxRetryDelay = Duration.ofMillis(maxRetryDelayMillis);
+        this.claimTimeout = Duration.ofMillis(claimTimeoutMillis);
+        this.drainTimeout = Duration.ofMillis(drainTimeoutMillis);
+        this.digestWindow = Duration.ofMillis(digestWindowMillis);
+
+        executors.put(ShipmentNotification.Channel.EMAIL, newExecutor("notification-email-", emailThreads, emailQueueCapacity));
+        executors.put(ShipmentNotification.Channel.WHATSAPP, newExecutor("notification-whatsapp-", whatsappThreads, whatsappQueueCapacity));
+    }
+
+    /**
+     * Write outbox records for the shipment in the caller's transaction; they are sent after it commits
+     */
+    @Transactional(propagation = Propagation.MANDATORY)
+    public void enqueue(Shipment shipment, ShipmentNotification.Channel... channels) {
+        LocalDateTime now = LocalDateTime.now();
+        List<ShipmentNotification> notifications = new ArrayList<>();
+        for (ShipmentNotification.Channel channel : channels) {
+            for (ShipmentNotification.Recipient recipient : recipients(shipment, channel)) {
+                ShipmentNotification notification = new ShipmentNotification();
+                notification.setShipmentId(shipment.getId());
+                notification.setChannel(channel);
+                notification.setRecipient(recipient);
+                if (channel == ShipmentNotification.Channel.EMAIL && Boolean.TRUE.equals(shipment.getShop().getEmailDigest())) {
+                    // Join the shop's open digest, or open one that goes out at the end of the window
+                    Long shopId = shipment.getShop().getId();
+                    LocalDateTime openDigestTime = notificationRepository.findOpenDigestTime(shopId, now);
+                    notification.setDigestShopId(shopId);
+                    notification.setNextAttemptAt(openDigestTime != null ? openDigestTime : now.plus(digestWindow));
+                }
+                notifications.add(notificationRepository.save(notification));
+            }
+        }
+        eventPublisher.publishEvent(new NotificationsQueuedEvent(notifications));
+    }
+
+    @TransactionalEventListener
+    public void onNotificationsQueued(NotificationsQueuedEvent event) {
+        event.getNotifications().forEach(this::dispatch);
+    }
+
+    @Scheduled(fixedDelayString = "${app.notifications.sweep-interval:30000}")
+    public void sweep() {
+        LocalDateTime now = LocalDateTime.now();
+        notificationRepository.findDispatchable(now, now.minus(claimTimeout), PageRequest.of(0, SWEEP_BATCH))
+                .forEach(this::dispatch);
+    }
+
+    /**
+     * Dead letters, most recent first
+     */
+    public List<ShipmentNotification> getFailed(int page, int size) {
+        return notificationRepository.findByStatus(ShipmentNotification.Status.FAILED, PageRequest.of(page, size));
+    }
+
+    /**
+     * Send a dead letter again, with a fresh set of attempts
+     *
+     * @throws RuntimeException if the notification does not exist or is not FAILED
+     */
+    public ShipmentNotification retry(Long notificationId) {
+        if (notificationRepository.requeueFailed(notificationId, LocalDateTime.now()) == 0) {
+            throw new RuntimeException("Failed notification not found");
+        }
+        ShipmentNotification notification = notificationRepository.findById(notificationId)
+                .orElseThrow(() -> new RuntimeException("Notification not found"));
+        dispatch(notification);
+        return notification;
+    }
+
+    /**
+     * Outbox records by status, and the work waiting in (queued) or held by (active) each channel's pool
+     */
+    public Map<String, Object> getStatus() {
+        Map<String, Long> records = new LinkedHashMap<>();
+        for (ShipmentNotification.Status status : ShipmentNotification.Status.values()) {
+            records.put(status.name(), 0L);
+        }
+        for (Object[] row : notificationRepository.countByStatus()) {
+            records.put(((ShipmentNotification.Status) row[0]).name(), (Long) row[1]);
+        }
+
+        Map<String, Object> channels = new LinkedHashMap<>();
+        executors.forEach((channel, executor) -> {
+            Map<String, Integer> pool = new LinkedHashMap<>();
+            pool.put("queued", executor.getQueue().size());
+            pool.put("active", executor.getActiveCount());
+            channels.put(channel.name(), pool);
+        });
+
+        Map<String, Object> status = new LinkedHashMap<>();
+        status.put("records", records);
+        status.put("channels", channels);
+        return status;
+    }
+
+    /**
+     * Stop taking work and let the queued notifications go out, for up to app.notifications.drain-timeout.
+     * Anything still unsent stays in the outbox and is picked up after the restart.
+     */
+    @PreDestroy
+    public void shutdown() {
+        executors.values().forEach(ThreadPoolExecutor::shutdown);
+        long deadline = System.nanoTime() + drainTimeout.toNanos();
+        try {
+            for (ThreadPoolExecutor executor : executors.values()) {
+                executor.awaitTermination(Math.max(0, deadline - System.nanoTime()), TimeUnit.NANOSECONDS);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        executors.values().forEach(ThreadPoolExecutor::shutdownNow);
+    }
+
+    private void dispatch(ShipmentNotification notification) {
+        Long notificationId = notification.getId();
+        if (!inFlight.add(notificationId)) {
+            return;
+        }
+        try {
+            executors.get(notification.getChannel()).execute(() -> {
+                try {
+                    deliver(notification);
+                } finally {
+                    inFlight.remove(notificationId);
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            // Still pending in the outbox: the next sweep queues it again
+            inFlight.remove(notificationId);
+        }
+    }
+
+    private void deliver(ShipmentNotification queued) {
+        Long shopId = queued.getDigestShopId();
+        if (shopId == null) {
+            claimAndSend(List.of(queued));
+            return;
+        }
+        // A digest email goes out with every due email of its shop. One worker at a time collects them:
+        // one skipped here is either taken by that worker or queued again by the next sweep.
+        if (!digestsInFlight.add(shopId)) {
+            return;
+        }
+        try {
+            LocalDateTime now = LocalDateTime.now();
+            claimAndSend(notificationRepository.findDispatchableDigest(shopId, now, now.minus(claimTimeout)));
+        } finally {
+            digestsInFlight.remove(shopId);
+        }
+    }
+
+    private void claimAndSend(List<ShipmentNotification> candidates) {
+        LocalDateTime now = LocalDateTime.now();
+        List<Long> claimedIds = new ArrayList<>();
+        for (ShipmentNotification candidate : candidates) {
+            // Not claimed if already sent, being sent by another worker, or not due yet
+            if (notificationRepository.claim(candidate.getId(), now, now.minus(claimTimeout)) == 1) {
+                claimedIds.add(candidate.getId());
+            }
+        }
+
+        List<ShipmentNotification> notifications = new ArrayList<>();
+        for (ShipmentNotification notification : notificationRepository.findAllById(claimedIds)) {
+            if (shipmentRepository.existsById(notification.getShipmentId())) {
+                notifications.add(notification);
+            } else {
+                // Deleted before delivery: nothing to send, and no reason to hold up the rest of a digest
+                notificationRepository.markFailed(notification.getId(), "Shipment not found");
+            }
+        }
+        if (notifications.isEmpty()) {
+            return;
+        }
+
+        try {
+            send(notifications);
+            LocalDateTime sentAt = LocalDateTime.now();
+            notifications.forEach(notification -> notificationRepository.markSent(notification.getId(), sentAt));
+        } catch (Exception e) {
+            fail(notifications, truncate(String.valueOf(e.getMessage())), isPermanent(e));
+        }
+    }
+
+    /**
+     * Send one notification, or a shop's digest emails as a single message
+     */
+    private void send(List<ShipmentNotification> notifications) throws Exception {
+        List<Long> shipmentIds = notifications.stream()
+                .map(ShipmentNotification::getShipmentId)
+                .distinct()
+                .toList();
+        switch (notifications.get(0).getChannel()) {
+            case EMAIL -> {
+                // The DDTs are attached: wait for renders that may still be queued
+                for (Long shipmentId : shipmentIds) {
+                    ShipmentPdfInfo pdfInfo = shipmentRepository.findPdfInfoById(shipmentId)
+                            .orElseThrow(() -> new RuntimeException("Shipment not found"));
+                    pdfRenderService.getRenderedPdf(pdfInfo);
+                }
+                List<Shipment> shipments = loadShipments(shipmentIds);
+                if (shipments.size() == 1) {
+                    emailService.sendShipmentEmail(shipments.get(0));
+                } else {
+                    emailService.sendShipmentDigestEmail(shipments);
+                }
+                LocalDateTime sentAt = LocalDateTime.now();
+                shipmentIds.forEach(shipmentId -> shipmentRepository.markEmailSent(shipmentId, sentAt));
+            }
+            case WHATSAPP -> {
+                // Never part of a digest: a single record, for a single recipient
+                ShipmentNotification notification = notifications.get(0);
+                Shipment shipment = loadShipments(shipmentIds).get(0);
+                whatsAppService.sendShipmentWhatsApp(shipment, notification.getRecipient());
+                if (notification.getRecipient() == ShipmentNotification.Recipient.SHOP) {
+                    shipmentRepository.markWhatsappSent(shipment.getId(), LocalDateTime.now());
+                }
+            }
+        }
+    }
+
+    /**
+     * Retry the notifications after the backoff, all at the same time so a digest stays together,
+     * or make dead letters of those out of attempts, and of all of them if the error is permanent
+     */
+    private void fail(List<ShipmentNotification> notifications, String error, boolean permanent) {
+        ShipmentNotification first = notifications.get(0);
+        int attempts = notifications.stream().mapToInt(ShipmentNotification::getAttempts).max().orElse(1);
+        String subject = notifications.size() == 1
+                ? first.getChannel() + " to " + first.getRecipient() + " for shipment " + first.getShipmentId()
+                : first.getChannel() + " digest for shop " + first.getDigestShopId() + " (" + notifications.size() + " notifications)";
+        if (permanent) {
+            System.err.println("Giving up on " + subject + ", it cannot be sent as is: " + error);
+            notifications.forEach(notification -> notificationRepository.markFailed(notification.getId(), error));
+            return;
+        }
+        if (attempts >= maxAttempts) {
+            System.err.println("Giving up on " + subject + " after " + attempts + " attempts: " + error);
+        } else {
+            System.err.println("Failed to send " + subject + " (attempt " + attempts + "): " + error);
+        }
+
+        LocalDateTime nextAttemptAt = LocalDateTime.now().plus(backoff(attempts));
+        for (ShipmentNotification notification : notifications) {
+            if (notification.getAttempts() >= maxAttempts) {
+                notificationRepository.markFailed(notification.getId(), error);
+            } else {
+                notificationRepository.markRetry(notification.getId(), error, nextAttemptAt);
+            }
+        }
+    }
+
+    /**
+     * Delay before the next attempt: retry-delay doubled after every failed attempt, capped at max-retry-delay,
+     * plus up to 20% jitter so notifications that failed together do not all retry at the same moment
+     */
+    private Duration backoff(int attempts) {
+        Duration delay = retryDelay.multipliedBy(1L << Math.min(attempts - 1, 30));
+        if (delay.compareTo(maxRetryDelay) > 0) {
+            delay = maxRetryDelay;
+        }
+        return delay.plusMillis(ThreadLocalRandom.current().nextLong(delay.toMillis() / 5 + 1));
+    }
+
+    /**
+     * Errors another attempt would run into again: a missing address, or a message the WhatsApp
+     * provider refused outright (4xx other than 429). A WhatsApp send Twilio never answered is
+     * dead-lettered too, since it may have been delivered and a retry would send it twice
+     */
+    private boolean isPermanent(Throwable error) {
+        for (Throwable cause = error; cause != null; cause = cause.getCause()) {
+            if (cause instanceof UndeliverableException) {
+                return true;
+            }
+            if (cause instanceof WhatsAppSendException sendError) {
+                return !sendError.isRetryable();
+            }
+        }
+        return false;
+    }
+
+    private List<ShipmentNotification.Recipient> recipients(Shipment shipment, ShipmentNotification.Channel channel) {
+        if (channel == ShipmentNotification.Channel.WHATSAPP && shipment.getDriver() != null
+                && shipment.getDriver().getWhatsappNumber() != null && !shipment.getDriver().getWhatsappNumber().isEmpty()) {
+            return List.of(ShipmentNotification.Recipient.SHOP, ShipmentNotification.Recipient.DRIVER);
+        }
+        return List.of(ShipmentNotification.Recipient.SHOP);
+    }
+
+    private List<Shipment> loadShipments(List<Long> shipmentIds) {
+        // Shop and driver are read outside any transaction: fetch them with the shipments
+        List<Shipment> shipments = shipmentRepository.findDetailedByIdIn(shipmentIds);
+        if (shipments.size() < shipmentIds.size()) {
+            throw new RuntimeException("Shipment not found");
+        }
+        return shipments;
+    }
+
+    private ThreadPoolExecutor newExecutor(String threadPrefix, int threads, int queueCapacity) {
+        AtomicInteger threadCount = new AtomicInteger();
+        return new ThreadPoolExecutor(threads, threads, 0L, TimeUnit.MILLISECONDS,
+                new LinkedBlockingQueue<>(queueCapacity),
+                runnable -> {
+                    Thread thread = new Thread(runnable, threadPrefix + threadCount.incrementAndGet());
+                    thread.setDaemon(true);
+                    return thread;
+                });
+    }
+
+    private String truncate(String message) {
+        return message.length() <= MAX_ERROR_LENGTH ? message : message.substring(0, MAX_ERROR_LENGTH);
+    }
+}
@@ -2,167 +2,318 @@ package com.bakery.warehouse.service;
 
 import com.bakery.warehouse.entity.Shipment;
 import com.bakery.warehouse.entity.ShipmentItem;
+import com.bakery.warehouse.entity.User;
+import com.itextpdf.io.font.FontProgram;
+import com.itextpdf.io.font.FontProgramFactory;
+import com.itextpdf.io.font.PdfEncodings;
+import com.itextpdf.io.font.constants.StandardFonts;
+import com.itextpdf.kernel.font.PdfFontFactory;
 import com.itextpdf.kernel.pdf.PdfDocument;
 import com.itextpdf.kernel.pdf.PdfWriter;
 import com.itextpdf.layout.Document;
+import com.itextpdf.layout.Style;
+import com.itextpdf.layout.element.AreaBreak;
 import com.itextpdf.layout.element.Paragraph;
 import com.itextpdf.layout.element.Table;
+import com.itextpdf.layout.properties.AreaBreakType;
 import com.itextpdf.layout.properties.TextAlignment;
 import com.itextpdf.layout.properties.UnitValue;
 import lombok.RequiredArgsConstructor;
-import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
 
-import java.io.File;
-import java.io.FileOutputStream;
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
 import java.math.BigDecimal;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.LocalDate;
 import java.time.format.DateTimeFormatter;
 import java.util.ArrayList;
+import java.util.HexFormat;
 import java.util.List;
 
 @Service
 @RequiredArgsConstructor
 public class PDFService {
 
-    @Value("${app.pdf.storage-path}")
-    private String storagePath;
+    // Bump when the layout changes, so documents rendered with the old layout no longer match
+    private static final String LAYOUT_VERSION = "2";
+
+    private static final DateTimeFormatter DATE_FORMAT = DateTimeFormatter.ofPattern("dd/MM/yyyy");
+
+    /*
+     * Rendering resources shared by every document. A PdfFont belongs to one PdfDocument, so only the parsed
+     * font program is shared and each document wraps it once. Styles and table templates are never modified
+     * after class initialization, which makes them safe to read from concurrent renders.
+     */
+    private static final FontProgram FONT_PROGRAM = loadFontProgram(StandardFonts.HELVETICA);
+
+    private static final Style TITLE_STYLE = new Style()
+            .setFontSize(20)
+            .setBold()
+            .setTextAlignment(TextAlignment.CENTER);
+    private static final Style SECTION_STYLE = new Style().setBold();
+    private static final Style TOTAL_STYLE = new Style().setTextAlignment(TextAlignment.RIGHT);
+    private static final Style NET_TOTAL_STYLE = new Style()
+            .setFontSize(14)
+            .setBold()
+            .setTextAlignment(TextAlignment.RIGHT);
+
+    private static final TableTemplate SHIPMENT_TABLE = new TableTemplate(
+            new float[]{3, 6, 2, 2, 2, 3},
+            "Codice", "Prodotto", "Quantità", "Unità", "Prezzo", "Totale");
+    private static final TableTemplate RETURN_TABLE = new TableTemplate(
+            new float[]{3, 6, 2, 2, 4, 3},
+            "Codice", "Prodotto", "Quantità", "Unità", "Motivo", "Totale");
+    private static final TableTemplate MANIFEST_TABLE = new TableTemplate(
+            new float[]{1, 4, 5, 7, 2, 3, 3},
+            "#", "Numero", "Negozio", "Indirizzo", "Articoli", "Totale", "Resi");
+
+    /**
+     * SHA-256 of everything writeShipmentPdf prints, in print order. Two shipments with the same
+     * fingerprint produce the same document, so a stored PDF with a matching fingerprint is up to date.
+     */
+    public String fingerprint(Shipment shipment) {
+        MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
 
-    public String generateShipmentPDF(Shipment shipment) throws Exception {
-        File directory = new File(storagePath);
-        if (!directory.exists()) {
-            directory.mkdirs();
+        StringBuilder content = new StringBuilder(256);
+        append(content, LAYOUT_VERSION);
+        append(content, shipment.getShipmentNumber());
+        append(content, shipment.getShipmentDate());
+        append(content, shipment.getShop().getName());
+        append(content, shipment.getShop().getAddress());
+        append(content, shipment.getShop().getCity());
+        append(content, shipment.getDriver() != null ? shipment.getDriver().getFullName() : null);
+        for (ShipmentItem item : shipment.getItems()) {
+            append(content, item.getItemType());
+            append(content, item.getProduct().getCode());
+            append(content, item.getProduct().getName());
+            append(content, item.getProduct().getUnit());
+            append(content, item.getQuantity());
+            append(content, item.getUnitPrice());
+            append(content, item.getTotalPrice());
+            append(content, item.getReturnReason());
         }
+        append(content, shipment.getShipmentTotal());
+        append(content, shipment.getReturnTotal());
+        append(content, shipment.getNotes());
 
-        String fileName = "shipment_" + shipment.getShipmentNumber() + ".pdf";
-        String filePath = storagePath + File.separator + fileName;
+        return HexFormat.of().formatHex(digest.digest(content.toString().getBytes(StandardCharsets.UTF_8)));
+    }
 
-        try (FileOutputStream fos = new FileOutputStream(filePath);
-             PdfWriter writer = new PdfWriter(fos);
-             PdfDocument pdf = new PdfDocument(writer);
-             Document document = new Document(pdf)) {
+    private void append(StringBuilder content, Object value) {
+        // Unit separator between fields, so adjacent values cannot run into each other
+        content.append(value != null ? value.toString() : "").append('\u001F');
+    }
 
-            document.add(new Paragraph("DOCUMENTO DI TRASPORTO")
-                    .setFontSize(20)
-                    .setBold()
-                    .setTextAlignment(TextAlignment.CENTER));
+    /**
+     * Render the shipment's DDT to the given stream (not closed by this method)
+     */
+    public void writeShipmentPdf(Shipment shipment, OutputStream out) throws IOException {
+        PdfWriter writer = new PdfWriter(out);
+        writer.setCloseStream(false);
 
-            document.add(new Paragraph("\n"));
+        try (PdfDocument pdf = new PdfDocument(writer);
+             Document document = newDocument(pdf)) {
+            addShipmentSection(document, shipment);
+        }
+    }
 
-            document.add(new Paragraph("Numero: " + shipment.getShipmentNumber()));
-            document.add(new Paragraph("Data: " + shipment.getShipmentDate()
-                    .format(DateTimeFormatter.ofPattern("dd/MM/yyyy"))));
-            document.add(new Paragraph("Negozio: " + shipment.getShop().getName()));
-            document.add(new Paragraph("Indirizzo: " + shipment.getShop().getAddress() +
-                    ", " + shipment.getShop().getCity()));
+    /**
+     * Write a driver's daily manifest to the given stream (not closed by this method): a summary page
+     * listing every stop, then each shipment's DDT on its own page. All sections share one document,
+     * so fonts and other resources are written once instead of once per DDT.
+     */
+    public void writeDriverManifest(User driver, LocalDate date, List<Shipment> shipments, OutputStream out)
+            throws IOException {
+        BufferedOutputStream buffered = new BufferedOutputStream(out, 64 * 1024);
+        PdfWriter writer = new PdfWriter(buffered);
+        writer.setCloseStream(false);
 
-            if (shipment.getDriver() != null) {
-                document.add(new Paragraph("Autista: " + shipment.getDriver().getFullName()));
-            }
+        try (PdfDocument pdf = new PdfDocument(writer);
+             Document document = newDocument(pdf)) {
+
+            document.add(new Paragraph("DISTINTA DI CONSEGNA").addStyle(TITLE_STYLE));
 
             document.add(new Paragraph("\n"));
 
-            List<ShipmentItem> shipmentItems = new ArrayList<>();
-            List<ShipmentItem> returnItems = new ArrayList<>();
+            document.add(new Paragraph("Autista: " + driver.getFullName()));
+            document.add(new Paragraph("Data: " + date.format(DATE_FORMAT)));
+            document.add(new Paragraph("Consegne: " + shipments.size()));
+
+            document.add(new Paragraph("\n"));
 
             BigDecimal shipmentTotal = BigDecimal.ZERO;
             BigDecimal returnsTotal = BigDecimal.ZERO;
 
-            for (ShipmentItem item : shipment.getItems()) {
-                if (item.getItemType() == ShipmentItem.ItemType.RETURN) {
-                    returnItems.add(item);
-                    if (item.getTotalPrice() != null) {
-                        returnsTotal = returnsTotal.add(item.getTotalPrice());
-                    }
-                } else {
-                    shipmentItems.add(item);
-                    if (item.getTotalPrice() != null) {
-                        shipmentTotal = shipmentTotal.add(item.getTotalPrice());
-                    }
-                }
-            }
+            if (!shipments.isEmpty()) {
+                Table stopsTable = MANIFEST_TABLE.newTable();
 
-            if (!shipmentItems.isEmpty()) {
-                float[] columnWidths = {3, 6, 2, 2, 2, 3};
-                Table shipmentTable = new Table(UnitValue.createPercentArray(columnWidths));
-                shipmentTable.setWidth(UnitValue.createPercentValue(100));
-
-                shipmentTable.addHeaderCell("Codice");
-                shipmentTable.addHeaderCell("Prodotto");
-                shipmentTable.addHeaderCell("Quantità");
-                shipmentTable.addHeaderCell("Unità");
-                shipmentTable.addHeaderCell("Prezzo");
-                shipmentTable.addHeaderCell("Totale");
-
-                for (ShipmentItem item : shipmentItems) {
-                    shipmentTable.addCell(item.getProduct().getCode());
-                    shipmentTable.addCell(item.getProduct().getName());
-                    shipmentTable.addCell(item.getQuantity().toString());
-                    shipmentTable.addCell(item.getProduct().getUnit());
-                    shipmentTable.addCell("€ " + item.getUnitPrice().toString());
-                    shipmentTable.addCell("€ " + item.getTotalPrice().toString());
-                }
+                int stop = 1;
+                for (Shipment shipment : shipments) {
+                    BigDecimal total = shipment.getShipmentTotal() != null ? shipment.getShipmentTotal() : BigDecimal.ZERO;
+                    BigDecimal returns = shipment.getReturnTotal() != null ? shipment.getReturnTotal() : BigDecimal.ZERO;
 
-                document.add(shipmentTable);
-            }
+                    stopsTable.addCell(String.valueOf(stop++));
+                    stopsTable.addCell(shipment.getShipmentNumber());
+                    stopsTable.addCell(shipment.getShop().getName());
+                    stopsTable.addCell(shipment.getShop().getAddress() + ", " + shipment.getShop().getCity());
+                    stopsTable.addCell(String.valueOf(shipment.getShipmentItemCount()));
+                    stopsTable.addCell("€ " + total);
+                    stopsTable.addCell("€ " + returns);
 
-            if (!returnItems.isEmpty()) {
-                document.add(new Paragraph("\n"));
-                document.add(new Paragraph("Resi").setBold());
-
-                float[] returnColumnWidths = {3, 6, 2, 2, 4, 3};
-                Table returnTable = new Table(UnitValue.createPercentArray(returnColumnWidths));
-                returnTable.setWidth(UnitValue.createPercentValue(100));
-
-                returnTable.addHeaderCell("Codice");
-                returnTable.addHeaderCell("Prodotto");
-                returnTable.addHeaderCell("Quantità");
-                returnTable.addHeaderCell("Unità");
-                returnTable.addHeaderCell("Motivo");
-                returnTable.addHeaderCell("Totale");
-
-                for (ShipmentItem item : returnItems) {
-                    returnTable.addCell(item.getProduct().getCode());
-                    returnTable.addCell(item.getProduct().getName());
-                    returnTable.addCell(item.getQuantity().toString());
-                    returnTable.addCell(item.getProduct().getUnit());
-                    String reason = item.getReturnReason() != null
-                            ? item.getReturnReason().name().replace('_', ' ')
-                            : "-";
-                    returnTable.addCell(reason);
-                    returnTable.addCell("€ " + item.getTotalPrice().toString());
+                    shipmentTotal = shipmentTotal.add(total);
+                    returnsTotal = returnsTotal.add(returns);
                 }
 
-                document.add(returnTable);
+                document.add(stopsTable);
             }
 
             document.add(new Paragraph("\n"));
-
-            if (shipmentTotal.compareTo(BigDecimal.ZERO) > 0) {
-                document.add(new Paragraph("Totale Spedizioni: € " + shipmentTotal.toString())
-                        .setTextAlignment(TextAlignment.RIGHT));
+            document.add(new Paragraph("Totale Spedizioni: € " + shipmentTotal).addStyle(TOTAL_STYLE));
+            document.add(new Paragraph("Totale Resi: € " + returnsTotal).addStyle(TOTAL_STYLE));
+            document.add(new Paragraph("TOTALE NETTO (Spedizioni - Resi): € " + shipmentTotal.subtract(returnsTotal))
+                    .addStyle(NET_TOTAL_STYLE));
+
+            for (Shipment shipment : shipments) {
+                document.add(new AreaBreak(AreaBreakType.NEXT_PAGE));
+                addShipmentSection(document, shipment);
             }
+        }
+        buffered.flush();
+    }
+
+    /**
+     * One DDT: header, shipped and returned items, totals and signature line
+     */
+    private void addShipmentSection(Document document, Shipment shipment) {
+        document.add(new Paragraph("DOCUMENTO DI TRASPORTO").addStyle(TITLE_STYLE));
+
+        document.add(new Paragraph("\n"));
 
-            if (returnsTotal.compareTo(BigDecimal.ZERO) > 0) {
-                document.add(new Paragraph("Totale Resi: € " + returnsTotal.toString())
-                        .setTextAlignment(TextAlignment.RIGHT));
+        document.add(new Paragraph("Numero: " + shipment.getShipmentNumber()));
+        document.add(new Paragraph("Data: " + shipment.getShipmentDate().format(DATE_FORMAT)));
+        document.add(new Paragraph("Negozio: " + shipment.getShop().getName()));
+        document.add(new Paragraph("Indirizzo: " + shipment.getShop().getAddress() +
+                ", " + shipment.getShop().getCity()));
+
+        if (shipment.getDriver() != null) {
+            document.add(new Paragraph("Autista: " + shipment.getDriver().getFullName()));
+        }
+
+        document.add(new Paragraph("\n"));
+
+        List<ShipmentItem> shipmentItems = new ArrayList<>();
+        List<ShipmentItem> returnItems = new ArrayList<>();
+
+        for (ShipmentItem item : shipment.getItems()) {
+            if (item.getItemType() == ShipmentItem.ItemType.RETURN) {
+                returnItems.add(item);
+            } else {
+                shipmentItems.add(item);
             }
+        }
 
-            BigDecimal netTotal = shipmentTotal.subtract(returnsTotal);
+        BigDecimal shipmentTotal = shipment.getShipmentTotal() != null ? shipment.getShipmentTotal() : BigDecimal.ZERO;
+        BigDecimal returnsTotal = shipment.getReturnTotal() != null ? shipment.getReturnTotal() : BigDecimal.ZERO;
 
-            document.add(new Paragraph("TOTALE NETTO (Spedizioni - Resi): € " + netTotal.toString())
-                    .setFontSize(14)
-                    .setBold()
-                    .setTextAlignment(TextAlignment.RIGHT));
+        if (!shipmentItems.isEmpty()) {
+            Table shipmentTable = SHIPMENT_TABLE.newTable();
 
-            if (shipment.getNotes() != null && !shipment.getNotes().isEmpty()) {
-                document.add(new Paragraph("\n"));
-                document.add(new Paragraph("Note: " + shipment.getNotes()));
+            for (ShipmentItem item : shipmentItems) {
+                shipmentTable.addCell(item.getProduct().getCode());
+                shipmentTable.addCell(item.getProduct().getName());
+                shipmentTable.addCell(item.getQuantity().toString());
+                shipmentTable.addCell(item.getProduct().getUnit());
+                shipmentTable.addCell("€ " + item.getUnitPrice().toString());
+                shipmentTable.addCell("€ " + item.getTotalPrice().toString());
             }
 
-            document.add(new Paragraph("\n\n"));
-            document.add(new Paragraph("Firma per accettazione: ____________________"));
+            document.add(shipmentTable);
         }
 
-        return filePath;
+        if (!returnItems.isEmpty()) {
+            document.add(new Paragraph("\n"));
+            document.add(new Paragraph("Resi").addStyle(SECTION_STYLE));
+
+            Table returnTable = RETURN_TABLE.newTable();
+
+            for (ShipmentItem item : returnItems) {
+                returnTable.addCell(item.getProduct().getCode());
+                returnTable.addCell(item.getProduct().getName());
+                returnTable.addCell(item.getQuantity().toString());
+                returnTable.addCell(item.getProduct().getUnit());
+                String reason = item.getReturnReason() != null
+                        ? item.getReturnReason().name().replace('_', ' ')
+                        : "-";
+                returnTable.addCell(reason);
+                returnTable.addCell("€ " + item.getTotalPrice().toString());
+            }
+
+            document.add(returnTable);
+        }
+
+        document.add(new Paragraph("\n"));
+
+        if (shipmentTotal.compareTo(BigDecimal.ZERO) > 0) {
+            document.add(new Paragraph("Totale Spedizioni: € " + shipmentTotal.toString()).addStyle(TOTAL_STYLE));
+        }
+
+        if (returnsTotal.compareTo(BigDecimal.ZERO) > 0) {
+            document.add(new Paragraph("Totale Resi: € " + returnsTotal.toString()).addStyle(TOTAL_STYLE));
+        }
+
+        BigDecimal netTotal = shipmentTotal.subtract(returnsTotal);
+
+        document.add(new Paragraph("TOTALE NETTO (Spedizioni - Resi): € " + netTotal.toString())
+                .addStyle(NET_TOTAL_STYLE));
+
+        if (shipment.getNotes() != null && !shipment.getNotes().isEmpty()) {
+            document.add(new Paragraph("\n"));
+            document.add(new Paragraph("Note: " + shipment.getNotes()));
+        }
+
+        document.add(new Paragraph("\n\n"));
+        document.add(new Paragraph("Firma per accettazione: ____________________"));
+    }
+
+    private Document newDocument(PdfDocument pdf) {
+        Document document = new Document(pdf);
+        // Setting the font up front spares each document from building its own font provider to resolve it
+        document.setFont(PdfFontFactory.createFont(FONT_PROGRAM, PdfEncodings.WINANSI));
+        return document;
+    }
+
+    private static FontProgram loadFontProgram(String fontName) {
+        try {
+            return FontProgramFactory.createFont(fontName);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * Column widths and header labels of a table; each render builds its own Table from it
+     */
+    private record TableTemplate(float[] columnWidths, String... headers) {
+
+        Table newTable() {
+            Table table = new Table(UnitValue.createPercentArray(columnWidths));
+            table.setWidth(UnitValue.createPercentValue(100));
+            // The widths are given, so skip measuring every cell's content to compute them
+            table.setFixedLayout();
+            for (String header : headers) {
+                table.addHeaderCell(header);
+            }
+            return table;
+        }
     }
 }
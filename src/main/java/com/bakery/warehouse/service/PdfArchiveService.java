@@ -0,0 +1,116 @@
+package com.bakery.warehouse.service;
+
+import com.bakery.warehouse.dto.ShipmentPdfInfo;
+import com.bakery.warehouse.entity.Shipment;
+import com.bakery.warehouse.repository.ShipmentRepository;
+import com.bakery.warehouse.specification.ShipmentSpecification;
+import lombok.RequiredArgsConstructor;
+import org.springframework.data.domain.Sort;
+import org.springframework.data.jpa.domain.Specification;
+import org.springframework.stereotype.Service;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDate;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.zip.Deflater;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+/**
+ * Streams the DDT PDFs of filtered shipments as a ZIP archive, one entry at a time.
+ * Missing or stale PDFs are rendered on the PDF worker pool a few shipments ahead of the entry
+ * being written, so renders overlap with streaming without flooding the render queue.
+ */
+@Service
+@RequiredArgsConstructor
+public class PdfArchiveService {
+
+    // Shipments whose PDF is requested ahead of the entry being written
+    private static final int RENDER_AHEAD = 8;
+
+    private static final Sort ARCHIVE_SORT = Sort.by(Sort.Direction.ASC, "shipmentDate", "id");
+
+    private final ShipmentRepository shipmentRepository;
+    private final PdfRenderService pdfRenderService;
+    private final PdfStorageService pdfStorageService;
+
+    /**
+     * Write the archive to the given stream (not closed by this method)
+     *
+     * @return number of PDFs written
+     */
+    public int exportZip(
+            LocalDate startDate,
+            LocalDate endDate,
+            Long shopId,
+            Long driverId,
+            List<Shipment.ShipmentStatus> statuses,
+            OutputStream out) throws IOException {
+
+        Specification<Shipment> spec = ShipmentSpecification.withFilters(
+                startDate, endDate, shopId, driverId, statuses
+        );
+        List<ShipmentPdfInfo> shipments = shipmentRepository.findPdfInfos(spec, ARCHIVE_SORT);
+        return writeZip(shipments, out);
+    }
+
+    /**
+     * Write an archive with no entries
+     */
+    public void exportEmptyZip(OutputStream out) throws IOException {
+        writeZip(List.of(), out);
+    }
+
+    private int writeZip(List<ShipmentPdfInfo> shipments, OutputStream out) throws IOException {
+        ZipOutputStream zip = new ZipOutputStream(out, StandardCharsets.UTF_8);
+        // PDF content streams are already compressed: favour speed over ratio
+        zip.setLevel(Deflater.BEST_SPEED);
+
+        Iterator<ShipmentPdfInfo> toRequest = shipments.iterator();
+        Deque<PendingEntry> pending = new ArrayDeque<>();
+        List<String> failed = new ArrayList<>();
+        int written = 0;
+
+        while (toRequest.hasNext() || !pending.isEmpty()) {
+            while (pending.size() < RENDER_AHEAD && toRequest.hasNext()) {
+                ShipmentPdfInfo shipment = toRequest.next();
+                pending.add(new PendingEntry(shipment, pdfRenderService.requestPdf(shipment)));
+            }
+
+            PendingEntry entry = pending.poll();
+            PdfRenderService.RenderedPdf pdf;
+            try {
+                pdf = pdfRenderService.await(entry.pdf());
+            } catch (RuntimeException e) {
+                failed.add(entry.shipment().getShipmentNumber());
+                continue;
+            }
+
+            zip.putNextEntry(new ZipEntry("DDT_" + entry.shipment().getShipmentNumber() + ".pdf"));
+            pdfStorageService.copyTo(pdf.path(), zip);
+            zip.closeEntry();
+            written++;
+        }
+
+        if (!failed.isEmpty()) {
+            zip.putNextEntry(new ZipEntry("ERRORI.txt"));
+            zip.write(("PDF non generati:\r\n" + String.join("\r\n", failed) + "\r\n")
+                    .getBytes(StandardCharsets.UTF_8));
+            zip.closeEntry();
+        }
+
+        zip.finish();
+        zip.flush();
+        return written;
+    }
+
+    private record PendingEntry(ShipmentPdfInfo shipment, CompletableFuture<PdfRenderService.RenderedPdf> pdf) {
+    }
+}
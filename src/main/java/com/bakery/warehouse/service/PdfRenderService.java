@@ -0,0 +1,193 @@
+package com.bakery.warehouse.service;
+
+import com.bakery.warehouse.dto.ShipmentPdfInfo;
+import com.bakery.warehouse.entity.Shipment;
+import com.bakery.warehouse.event.ShipmentChangedEvent;
+import com.bakery.warehouse.repository.ShipmentRepository;
+import jakarta.annotation.PreDestroy;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.event.TransactionalEventListener;
+
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Renders shipment PDFs on a bounded worker pool, after the change that made them stale has committed.
+ * At most one render per shipment waits in the queue: further requests for the same shipment join it.
+ * A change arriving while a render is already running queues a new one, so the last render always
+ * sees the last committed content. A render whose content fingerprint matches the stored PDF is skipped.
+ */
+@Service
+public class PdfRenderService {
+
+    private final ShipmentRepository shipmentRepository;
+    private final PDFService pdfService;
+    private final PdfStorageService pdfStorageService;
+    private final ThreadPoolExecutor executor;
+    private final long waitTimeoutMillis;
+
+    // Renders submitted but not started yet, and renders currently running, by shipment id
+    private final Map<Long, CompletableFuture<RenderedPdf>> queued = new ConcurrentHashMap<>();
+    private final Map<Long, CompletableFuture<RenderedPdf>> running = new ConcurrentHashMap<>();
+
+    public PdfRenderService(
+            ShipmentRepository shipmentRepository,
+            PDFService pdfService,
+            PdfStorageService pdfStorageService,
+            @Value("${app.pdf.render.threads:2}") int threads,
+            @Value("${app.pdf.render.queue-capacity:500}") int queueCapacity,
+            @Value("${app.pdf.render.wait-timeout:30000}") long waitTimeoutMillis) {
+        this.shipmentRepository = shipmentRepository;
+        this.pdfService = pdfService;
+        this.pdfStorageService = pdfStorageService;
+        this.waitTimeoutMillis = waitTimeoutMillis;
+
+        AtomicInteger threadCount = new AtomicInteger();
+        this.executor = new ThreadPoolExecutor(threads, threads, 0L, TimeUnit.MILLISECONDS,
+                new LinkedBlockingQueue<>(queueCapacity),
+                runnable -> {
+                    Thread thread = new Thread(runnable, "pdf-render-" + threadCount.incrementAndGet());
+                    thread.setDaemon(true);
+                    return thread;
+                });
+    }
+
+    /**
+     * Re-render when the printed content of a shipment changes (status is not printed)
+     */
+    @TransactionalEventListener(fallbackExecution = true)
+    public void onShipmentChanged(ShipmentChangedEvent event) {
+        if (event.getChangeType() == ShipmentChangedEvent.ChangeType.CREATED
+                || event.getChangeType() == ShipmentChangedEvent.ChangeType.UPDATED) {
+            submit(event.getShipmentId());
+        }
+    }
+
+    /**
+     * Queue a render of the shipment, or join the one already waiting in the queue
+     *
+     * @return future completed with the rendered PDF
+     */
+    public CompletableFuture<RenderedPdf> submit(Long shipmentId) {
+        CompletableFuture<RenderedPdf> created = new CompletableFuture<>();
+        CompletableFuture<RenderedPdf> existing = queued.putIfAbsent(shipmentId, created);
+        if (existing != null) {
+            return existing;
+        }
+
+        execute(shipmentId, created);
+        return created;
+    }
+
+    /**
+     * Rendered PDF of the shipment. Waits for a queued or running render if there is one,
+     * renders now (on the pool) if the shipment has never been rendered or its file is gone.
+     */
+    public RenderedPdf getRenderedPdf(ShipmentPdfInfo shipment) {
+        return await(requestPdf(shipment));
+    }
+
+    /**
+     * Non-blocking variant of getRenderedPdf: the future is already complete when the stored PDF is current
+     */
+    public CompletableFuture<RenderedPdf> requestPdf(ShipmentPdfInfo shipment) {
+        CompletableFuture<RenderedPdf> pending = queued.get(shipment.getId());
+        if (pending == null) {
+            pending = running.get(shipment.getId());
+        }
+        if (pending != null) {
+            return pending;
+        }
+        if (shipment.getPdfFingerprint() != null && isReadable(shipment.getPdfPath())) {
+            return CompletableFuture.completedFuture(
+                    new RenderedPdf(shipment.getPdfPath(), shipment.getPdfFingerprint()));
+        }
+        return submit(shipment.getId());
+    }
+
+    /**
+     * Wait (up to app.pdf.render.wait-timeout) for a render requested with requestPdf or submit
+     */
+    public RenderedPdf await(CompletableFuture<RenderedPdf> pending) {
+        try {
+            return pending.get(waitTimeoutMillis, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException("Errore durante la generazione del PDF", e);
+        } catch (ExecutionException | TimeoutException e) {
+            throw new RuntimeException("Errore durante la generazione del PDF", e);
+        }
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        executor.shutdownNow();
+    }
+
+    private void render(Long shipmentId, CompletableFuture<RenderedPdf> result) {
+        CompletableFuture<RenderedPdf> previous = running.putIfAbsent(shipmentId, result);
+        if (previous != null) {
+            // A render of older content is still writing this shipment's file: start after it
+            previous.whenComplete((path, error) -> execute(shipmentId, result));
+            return;
+        }
+        // From now on a new change must queue a new render instead of joining this one
+        queued.remove(shipmentId, result);
+
+        RenderedPdf rendered = null;
+        Exception failure = null;
+        try {
+            Shipment shipment = shipmentRepository.findDetailedById(shipmentId)
+                    .orElseThrow(() -> new RuntimeException("Shipment not found"));
+            String fingerprint = pdfService.fingerprint(shipment);
+            if (fingerprint.equals(shipment.getPdfFingerprint()) && isReadable(shipment.getPdfPath())) {
+                // Nothing printed has changed since the stored PDF was rendered
+                rendered = new RenderedPdf(shipment.getPdfPath(), fingerprint);
+            } else {
+                String pdfPath = pdfStorageService.store(shipment, fingerprint,
+                        out -> pdfService.writeShipmentPdf(shipment, out));
+                shipmentRepository.updatePdf(shipmentId, pdfPath, fingerprint);
+                rendered = new RenderedPdf(pdfPath, fingerprint);
+            }
+        } catch (Exception e) {
+            System.err.println("Failed to render PDF for shipment " + shipmentId + ": " + e.getMessage());
+            failure = e;
+        }
+
+        // Leave the running set before completing, so a render chained on this one can start
+        running.remove(shipmentId, result);
+        if (failure == null) {
+            result.complete(rendered);
+        } else {
+            result.completeExceptionally(failure);
+        }
+    }
+
+    private void execute(Long shipmentId, CompletableFuture<RenderedPdf> result) {
+        try {
+            executor.execute(() -> render(shipmentId, result));
+        } catch (RejectedExecutionException e) {
+            queued.remove(shipmentId, result);
+            result.completeExceptionally(new RuntimeException("Coda di generazione PDF piena", e));
+        }
+    }
+
+    private boolean isReadable(String pdfPath) {
+        return pdfStorageService.exists(pdfPath);
+    }
+
+    /**
+     * A stored PDF (see PdfStorageService) and the fingerprint of the content it was rendered from
+     */
+    public record RenderedPdf(String path, String fingerprint) {
+    }
+}
@@ -0,0 +1,624 @@
+package com.bakery.warehouse.service;
+
+import com.bakery.warehouse.dto.ShipmentPdfInfo;
+import com.bakery.warehouse.entity.Shipment;
+import com.bakery.warehouse.repository.ShipmentRepository;
+import jakarta.annotation.PreDestroy;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.DirectoryNotEmptyException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.FileTime;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.YearMonth;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.stream.Stream;
+import java.util.zip.Deflater;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+import java.util.zip.ZipOutputStream;
+
+/**
+ * Where shipment PDFs live on disk. A document is written to {@code <storage>/<yyyy>/<MM>/<shopId>/},
+ * so no directory holds more than one shop's month. Once a month is closed, a nightly job packs its
+ * directory into {@code <storage>/<yyyy>/<MM>.zip}: the ZIP central directory is the index that finds one
+ * document without reading the others. A packed document's pdfPath is {@code <archive>!/<shopId>/<file>}.
+ * The same job moves documents still in the old flat layout into their shard.
+ * <p>
+ * A document's file name carries its content fingerprint, so a path never changes content: a re-render writes
+ * a new file and the superseded one is only deleted by the nightly job, once no download can still be reading it
+ * (the container's sendfile reopens a file by name after the request has returned).
+ */
+@Service
+public class PdfStorageService {
+
+    private static final String ARCHIVE_EXTENSION = ".zip";
+    private static final String ENTRY_SEPARATOR = "!/";
+
+    // A file this recent may belong to a render that has not recorded its path yet: leave it for the next run
+    private static final Duration SETTLE_TIME = Duration.ofMinutes(10);
+
+    private static final String FILE_PREFIX = "shipment_";
+    private static final String FILE_EXTENSION = ".pdf";
+
+    // Fingerprint characters in a file name: enough to tell the versions of one document apart
+    private static final int FINGERPRINT_CHARS = 16;
+
+    // Shipment numbers per lookup query, well below the IN-list limits of the databases
+    private static final int LOOKUP_BATCH = 500;
+
+    private static final int MAX_OPEN_ARCHIVES = 24;
+
+    private final ShipmentRepository shipmentRepository;
+    private final Path root;
+    private final int packDelayDays;
+
+    /*
+     * Archives opened for reads, most recently used last. An archive evicted from here or replaced by a repack
+     * is closed as soon as the last reader still using it (a download, an attachment) releases it.
+     */
+    private final Map<Path, SharedArchive> openArchives = new LinkedHashMap<>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Path, SharedArchive> eldest) {
+            if (size() <= MAX_OPEN_ARCHIVES) {
+                return false;
+            }
+            retire(eldest.getValue());
+            return true;
+        }
+    };
+
+    public PdfStorageService(
+            ShipmentRepository shipmentRepository,
+            @Value("${app.pdf.storage-path}") String storagePath,
+            @Value("${app.pdf.packing.delay-days:7}") int packDelayDays) {
+        this.shipmentRepository = shipmentRepository;
+        this.root = Paths.get(storagePath);
+        this.packDelayDays = packDelayDays;
+    }
+
+    /**
+     * Write the shipment's PDF into its shard, under a name of its own: the previous version stays
+     * in place for the downloads still reading it, until the nightly job removes it
+     *
+     * @param fingerprint fingerprint of the content (see PDFService.fingerprint)
+     * @return the pdfPath to record on the shipment
+     */
+    public String store(Shipment shipment, String fingerprint, PdfContent content) throws IOException {
+        Path target = shardPath(shipment.getShipmentDate(), shipment.getShop().getId(),
+                shipment.getShipmentNumber(), fingerprint);
+        if (Files.isReadable(target)) {
+            // Already rendered from the same content (the path recorded on the shipment was lost)
+            return target.toString();
+        }
+        Files.createDirectories(target.getParent());
+
+        // Write next to the target and move it into place, so a download never reads a half-written file
+        Path tempFile = tempFile(target);
+        try (OutputStream out = Files.newOutputStream(tempFile)) {
+            content.writeTo(out);
+        } catch (IOException | RuntimeException e) {
+            Files.deleteIfExists(tempFile);
+            throw e;
+        }
+
+        Files.move(tempFile, target, StandardCopyOption.ATOMIC_MOVE);
+        return target.toString();
+    }
+
+    public boolean exists(String pdfPath) {
+        if (pdfPath == null || pdfPath.isBlank()) {
+            return false;
+        }
+        if (!isPacked(pdfPath)) {
+            return Files.isReadable(Paths.get(pdfPath));
+        }
+        try {
+            locate(pdfPath).close();
+            return true;
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Resolve a pdfPath to a loose file or to an entry of a monthly archive.
+     * The caller must close the result when done reading, so the archive can be closed once it is replaced.
+     *
+     * @throws NoSuchFileException if the path points into an archive that does not have it
+     */
+    public StoredPdf locate(String pdfPath) throws IOException {
+        int split = pdfPath.lastIndexOf(ARCHIVE_EXTENSION + ENTRY_SEPARATOR);
+        if (split < 0) {
+            return new StoredPdf(Paths.get(pdfPath), null, null);
+        }
+
+        Path archivePath = Paths.get(pdfPath.substring(0, split + ARCHIVE_EXTENSION.length()));
+        SharedArchive archive = acquireArchive(archivePath);
+        ZipEntry entry = archive.zip.getEntry(pdfPath.substring(split + ARCHIVE_EXTENSION.length() + ENTRY_SEPARATOR.length()));
+        if (entry == null) {
+            release(archive);
+            throw new NoSuchFileException(pdfPath);
+        }
+        return new StoredPdf(archivePath, archive, entry);
+    }
+
+    /**
+     * The document's content; closing the stream also releases the archive it is read from
+     */
+    public InputStream open(String pdfPath) throws IOException {
+        StoredPdf stored = locate(pdfPath);
+        if (!stored.isPacked()) {
+            return Files.newInputStream(stored.file());
+        }
+        try {
+            return new FilterInputStream(stored.archive().getInputStream(stored.entry())) {
+                @Override
+                public void close() throws IOException {
+                    try {
+                        super.close();
+                    } finally {
+                        stored.close();
+                    }
+                }
+            };
+        } catch (IOException | RuntimeException e) {
+            stored.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Copy the document to the stream (not closed by this method)
+     */
+    public void copyTo(String pdfPath, OutputStream out) throws IOException {
+        try (InputStream in = open(pdfPath)) {
+            in.transferTo(out);
+        }
+    }
+
+    /**
+     * Move documents left in the old layout into their shard, then pack the closed months
+     * and delete the superseded versions in the others
+     */
+    @Scheduled(cron = "${app.pdf.packing.cron:0 30 3 * * *}")
+    public void maintain() {
+        try {
+            migrateLegacyPaths();
+        } catch (Exception e) {
+            System.err.println("Failed to migrate PDF paths: " + e.getMessage());
+        }
+        try {
+            maintainMonths(LocalDate.now());
+        } catch (Exception e) {
+            System.err.println("Failed to pack PDF archives: " + e.getMessage());
+        }
+    }
+
+    private void migrateLegacyPaths() {
+        // Anything not below <storage>/<yyyy>/: the flat layout, or a previous storage-path
+        String layoutPattern = root + File.separator + "____" + File.separator + "%";
+        List<ShipmentPdfInfo> shipments = shipmentRepository.findPdfInfosOutsideLayout(layoutPattern);
+
+        int moved = 0;
+        for (ShipmentPdfInfo shipment : shipments) {
+            try {
+                if (migrate(shipment)) {
+                    moved++;
+                }
+            } catch (IOException e) {
+                System.err.println("Failed to move PDF of shipment " + shipment.getShipmentNumber() + ": " + e.getMessage());
+            }
+        }
+        if (moved > 0) {
+            System.out.println("Moved " + moved + " PDFs into the sharded storage layout");
+        }
+    }
+
+    private boolean migrate(ShipmentPdfInfo shipment) throws IOException {
+        Path source = Paths.get(shipment.getPdfPath());
+        if (!Files.isReadable(source)) {
+            // Nothing to move: the next download renders the document again, into its shard
+            return false;
+        }
+
+        Path target = shardPath(shipment.getShipmentDate(), shipment.getShopId(),
+                shipment.getShipmentNumber(), shipment.getPdfFingerprint());
+        Files.createDirectories(target.getParent());
+        try {
+            Files.move(source, target);
+        } catch (FileAlreadyExistsException e) {
+            // Already rendered into the shard (or moved by an interrupted run): the old file is not needed
+            Files.delete(source);
+        }
+
+        shipmentRepository.movePdf(shipment.getId(), shipment.getPdfPath(), fingerprintOf(shipment), target.toString());
+        return true;
+    }
+
+    private void maintainMonths(LocalDate today) throws IOException {
+        YearMonth lastClosed = YearMonth.from(today.minusDays(packDelayDays)).minusMonths(1);
+
+        Map<Path, Boolean> months = new LinkedHashMap<>();
+        for (Path year : directories(root, "[0-9][0-9][0-9][0-9]")) {
+            for (Path month : directories(year, "[0-9][0-9]")) {
+                YearMonth yearMonth = YearMonth.of(
+                        Integer.parseInt(year.getFileName().toString()),
+                        Integer.parseInt(month.getFileName().toString()));
+                months.put(month, !yearMonth.isAfter(lastClosed));
+            }
+        }
+
+        for (Map.Entry<Path, Boolean> month : months.entrySet()) {
+            try {
+                if (month.getValue()) {
+                    packMonth(month.getKey());
+                } else {
+                    removeSuperseded(month.getKey());
+                }
+            } catch (IOException e) {
+                System.err.println("Failed to maintain PDFs of " + month.getKey() + ": " + e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * Delete the month directory's documents no shipment points at any more
+     */
+    private void removeSuperseded(Path monthDir) throws IOException {
+        Map<String, Path> documents = settledDocuments(monthDir);
+        keepCurrent(documents, findShipments(documents.values()));
+    }
+
+    /**
+     * Add the month directory's documents to the month archive (replacing older versions of the same
+     * documents), point their shipments at the archive, and remove the directory
+     */
+    private void packMonth(Path monthDir) throws IOException {
+        Path archive = monthDir.resolveSibling(monthDir.getFileName() + ARCHIVE_EXTENSION);
+
+        Map<String, Path> documents = settledDocuments(monthDir);
+        Map<String, ShipmentPdfInfo> shipments = findShipments(documents.values());
+        Map<String, Path> toPack = keepCurrent(documents, shipments);
+
+        if (!toPack.isEmpty()) {
+            writeArchive(archive, toPack);
+
+            int packed = 0;
+            for (Map.Entry<String, Path> document : toPack.entrySet()) {
+                ShipmentPdfInfo shipment = shipments.get(shipmentNumberOf(document.getValue().getFileName().toString()));
+                String packedPath = archive + ENTRY_SEPARATOR + document.getKey();
+                // Only if nothing was re-rendered meanwhile; otherwise the newer file is packed next time
+                if (shipmentRepository.movePdf(shipment.getId(), shipment.getPdfPath(), fingerprintOf(shipment), packedPath) == 1) {
+                    Files.delete(document.getValue());
+                    packed++;
+                }
+            }
+            System.out.println("Packed " + packed + " PDFs into " + archive);
+        }
+
+        for (Path shopDir : directories(monthDir, "*")) {
+            deleteIfEmpty(shopDir);
+        }
+        deleteIfEmpty(monthDir);
+    }
+
+    /**
+     * Settled documents of the month by entry name, "<shopId>/shipment_<number>_<fingerprint>.pdf"
+     */
+    private Map<String, Path> settledDocuments(Path monthDir) throws IOException {
+        FileTime settled = FileTime.from(Instant.now().minus(SETTLE_TIME));
+        Map<String, Path> documents = new TreeMap<>();
+        try (Stream<Path> files = Files.walk(monthDir, 2)) {
+            for (Path file : (Iterable<Path>) files::iterator) {
+                if (file.getNameCount() == monthDir.getNameCount() + 2
+                        && file.getFileName().toString().endsWith(FILE_EXTENSION)
+                        && Files.getLastModifiedTime(file).compareTo(settled) < 0) {
+                    documents.put(monthDir.relativize(file).toString().replace(File.separatorChar, '/'), file);
+                }
+            }
+        }
+        return documents;
+    }
+
+    /**
+     * Delete the documents no shipment points at any more (deleted, or superseded by a newer version)
+     *
+     * @return the documents still current, by entry name
+     */
+    private Map<String, Path> keepCurrent(Map<String, Path> documents, Map<String, ShipmentPdfInfo> shipments)
+            throws IOException {
+        Map<String, Path> current = new TreeMap<>();
+        for (Map.Entry<String, Path> document : documents.entrySet()) {
+            ShipmentPdfInfo shipment = shipments.get(shipmentNumberOf(document.getValue().getFileName().toString()));
+            if (shipment != null && document.getValue().toString().equals(shipment.getPdfPath())) {
+                current.put(document.getKey(), document.getValue());
+            } else if (replacedBeforeSettleTime(shipment)) {
+                Files.deleteIfExists(document.getValue());
+            }
+        }
+        return current;
+    }
+
+    /**
+     * Whether a download that read the shipment's previous pdfPath has surely finished with it:
+     * the version that replaced it was written more than SETTLE_TIME ago
+     */
+    private boolean replacedBeforeSettleTime(ShipmentPdfInfo shipment) throws IOException {
+        if (shipment == null || shipment.getPdfPath() == null || isPacked(shipment.getPdfPath())) {
+            return true;
+        }
+        try {
+            FileTime replacedAt = Files.getLastModifiedTime(Paths.get(shipment.getPdfPath()));
+            return replacedAt.compareTo(FileTime.from(Instant.now().minus(SETTLE_TIME))) < 0;
+        } catch (NoSuchFileException e) {
+            return true;
+        }
+    }
+
+    /**
+     * Write the archive with the given documents, dropping the entries they replace: the same name,
+     * or an older version of the same shipment
+     */
+    private void writeArchive(Path archive, Map<String, Path> documents) throws IOException {
+        Set<String> replacedShipments = new HashSet<>();
+        for (String name : documents.keySet()) {
+            replacedShipments.add(shipmentNumberOf(fileNameOf(name)));
+        }
+
+        Path tempFile = tempFile(archive);
+        try (ZipOutputStream zip = new ZipOutputStream(new BufferedOutputStream(Files.newOutputStream(tempFile)))) {
+            // Written once, read rarely: favour ratio over speed
+            zip.setLevel(Deflater.BEST_COMPRESSION);
+
+            if (Files.exists(archive)) {
+                try (ZipFile previous = new ZipFile(archive.toFile())) {
+                    for (ZipEntry entry : Collections.list(previous.entries())) {
+                        if (!documents.containsKey(entry.getName())
+                                && !replacedShipments.contains(shipmentNumberOf(fileNameOf(entry.getName())))) {
+                            zip.putNextEntry(newEntry(entry.getName(), entry.getLastModifiedTime()));
+                            try (InputStream in = previous.getInputStream(entry)) {
+                                in.transferTo(zip);
+                            }
+                            zip.closeEntry();
+                        }
+                    }
+                }
+            }
+
+            for (Map.Entry<String, Path> document : documents.entrySet()) {
+                zip.putNextEntry(newEntry(document.getKey(), Files.getLastModifiedTime(document.getValue())));
+                Files.copy(document.getValue(), zip);
+                zip.closeEntry();
+            }
+        } catch (IOException | RuntimeException e) {
+            Files.deleteIfExists(tempFile);
+            throw e;
+        }
+
+        Files.move(tempFile, archive, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        synchronized (this) {
+            SharedArchive replaced = openArchives.remove(archive);
+            if (replaced != null) {
+                retire(replaced);
+            }
+        }
+    }
+
+    private ZipEntry newEntry(String name, FileTime lastModified) {
+        ZipEntry entry = new ZipEntry(name);
+        // Keeps Last-Modified of a download unchanged when its document is packed
+        entry.setLastModifiedTime(lastModified);
+        return entry;
+    }
+
+    private Map<String, ShipmentPdfInfo> findShipments(Iterable<Path> documents) {
+        List<String> numbers = new ArrayList<>();
+        for (Path document : documents) {
+            numbers.add(shipmentNumberOf(document.getFileName().toString()));
+        }
+
+        Map<String, ShipmentPdfInfo> shipments = new HashMap<>();
+        for (int from = 0; from < numbers.size(); from += LOOKUP_BATCH) {
+            List<String> batch = numbers.subList(from, Math.min(from + LOOKUP_BATCH, numbers.size()));
+            for (ShipmentPdfInfo shipment : shipmentRepository.findPdfInfosByShipmentNumbers(batch)) {
+                shipments.put(shipment.getShipmentNumber(), shipment);
+            }
+        }
+        return shipments;
+    }
+
+    @PreDestroy
+    public synchronized void closeArchives() {
+        List<SharedArchive> archives = new ArrayList<>(openArchives.values());
+        openArchives.clear();
+        archives.forEach(this::retire);
+    }
+
+    private synchronized SharedArchive acquireArchive(Path archive) throws IOException {
+        SharedArchive shared = openArchives.get(archive);
+        if (shared == null) {
+            shared = new SharedArchive(new ZipFile(archive.toFile()));
+            openArchives.put(archive, shared);
+        }
+        shared.readers++;
+        return shared;
+    }
+
+    private synchronized void release(SharedArchive archive) {
+        archive.readers--;
+        if (archive.retired && archive.readers == 0) {
+            close(archive);
+        }
+    }
+
+    /**
+     * No longer handed out: close it now, or when its last reader releases it
+     */
+    private synchronized void retire(SharedArchive archive) {
+        archive.retired = true;
+        if (archive.readers == 0) {
+            close(archive);
+        }
+    }
+
+    private void close(SharedArchive archive) {
+        try {
+            archive.zip.close();
+        } catch (IOException e) {
+            System.err.println("Failed to close PDF archive " + archive.zip.getName() + ": " + e.getMessage());
+        }
+    }
+
+    /**
+     * {@code <storage>/<yyyy>/<MM>/<shopId>/shipment_<number>_<fingerprint>.pdf}; without a fingerprint
+     * (a document rendered before fingerprints) {@code shipment_<number>.pdf}
+     */
+    private Path shardPath(LocalDate shipmentDate, Long shopId, String shipmentNumber, String fingerprint) {
+        String version = fingerprint == null || fingerprint.isEmpty()
+                ? ""
+                : "_" + fingerprint.substring(0, Math.min(FINGERPRINT_CHARS, fingerprint.length()));
+        return root.resolve(String.valueOf(shipmentDate.getYear()))
+                .resolve(String.format("%02d", shipmentDate.getMonthValue()))
+                .resolve(String.valueOf(shopId))
+                .resolve(FILE_PREFIX + shipmentNumber + version + FILE_EXTENSION);
+    }
+
+    private String shipmentNumberOf(String fileName) {
+        // Shipment numbers have no underscore: the first one after the prefix starts the fingerprint
+        int end = fileName.indexOf('_', FILE_PREFIX.length());
+        return fileName.substring(FILE_PREFIX.length(), end >= 0 ? end : fileName.length() - FILE_EXTENSION.length());
+    }
+
+    private String fileNameOf(String entryName) {
+        return entryName.substring(entryName.lastIndexOf('/') + 1);
+    }
+
+    private String fingerprintOf(ShipmentPdfInfo shipment) {
+        // movePdf compares with the stored fingerprint, empty when the PDF predates fingerprints
+        return Objects.requireNonNullElse(shipment.getPdfFingerprint(), "");
+    }
+
+    private boolean isPacked(String pdfPath) {
+        return pdfPath.contains(ARCHIVE_EXTENSION + ENTRY_SEPARATOR);
+    }
+
+    private Path tempFile(Path target) {
+        return target.resolveSibling(target.getFileName() + ".tmp");
+    }
+
+    private List<Path> directories(Path parent, String glob) throws IOException {
+        List<Path> directories = new ArrayList<>();
+        if (!Files.isDirectory(parent)) {
+            return directories;
+        }
+        try (DirectoryStream<Path> entries = Files.newDirectoryStream(parent, glob)) {
+            for (Path entry : entries) {
+                if (Files.isDirectory(entry)) {
+                    directories.add(entry);
+                }
+            }
+        }
+        return directories;
+    }
+
+    private void deleteIfEmpty(Path directory) throws IOException {
+        try {
+            Files.deleteIfExists(directory);
+        } catch (DirectoryNotEmptyException e) {
+            // Still holds documents written too recently to pack
+        }
+    }
+
+    /**
+     * Writes a document to the stream it is given
+     */
+    @FunctionalInterface
+    public interface PdfContent {
+        void writeTo(OutputStream out) throws IOException;
+    }
+
+    /**
+     * A stored document: a loose file, or an entry of a monthly archive (archive and entry set).
+     * Closing it releases the archive; the entry cannot be read afterwards.
+     */
+    public final class StoredPdf implements AutoCloseable {
+
+        private final Path file;
+        private final SharedArchive archive;
+        private final ZipEntry entry;
+        private boolean closed;
+
+        private StoredPdf(Path file, SharedArchive archive, ZipEntry entry) {
+            this.file = file;
+            this.archive = archive;
+            this.entry = entry;
+        }
+
+        public Path file() {
+            return file;
+        }
+
+        public ZipFile archive() {
+            return archive != null ? archive.zip : null;
+        }
+
+        public ZipEntry entry() {
+            return entry;
+        }
+
+        public boolean isPacked() {
+            return archive != null;
+        }
+
+        @Override
+        public void close() {
+            synchronized (PdfStorageService.this) {
+                if (archive != null && !closed) {
+                    closed = true;
+                    release(archive);
+                }
+            }
+        }
+    }
+
+    /**
+     * An open archive and the number of StoredPdfs reading from it
+     */
+    private static class SharedArchive {
+
+        private final ZipFile zip;
+        private int readers;
+        // Evicted or replaced: closed when readers drops to 0
+        private boolean retired;
+
+        SharedArchive(ZipFile zip) {
+            this.zip = zip;
+        }
+    }
+}
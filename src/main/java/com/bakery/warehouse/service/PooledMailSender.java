@@ -0,0 +1,291 @@
+package com.bakery.warehouse.service;
+
+import jakarta.annotation.PreDestroy;
+import jakarta.mail.Address;
+import jakarta.mail.AuthenticationFailedException;
+import jakarta.mail.MessagingException;
+import jakarta.mail.SendFailedException;
+import jakarta.mail.Transport;
+import jakarta.mail.internet.MimeMessage;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.mail.MailProperties;
+import org.springframework.boot.context.properties.EnableConfigurationProperties;
+import org.springframework.mail.MailAuthenticationException;
+import org.springframework.mail.MailException;
+import org.springframework.mail.MailSendException;
+import org.springframework.mail.javamail.JavaMailSenderImpl;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayDeque;
+import java.util.Date;
+import java.util.Deque;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * JavaMailSender (configured from spring.mail) that keeps its SMTP connections open between sends.
+ * The plain sender connects, does STARTTLS and logs in for every send call; this one borrows an
+ * authenticated connection from a small pool, sends the messages of the call over it and gives it back.
+ * A connection idle for longer than app.mail.pool.validate-after is checked (NOOP) before reuse, one idle
+ * for longer than app.mail.pool.max-idle is closed, and one that carried app.mail.pool.max-messages
+ * messages is replaced, since servers limit how many they accept per connection.
+ */
+@Component
+// Replaces the auto-configured sender, which is what normally enables the spring.mail properties
+@EnableConfigurationProperties(MailProperties.class)
+public class PooledMailSender extends JavaMailSenderImpl {
+
+    private final int maxConnections;
+    private final long borrowTimeoutMillis;
+    private final long validateAfterMillis;
+    private final long maxIdleMillis;
+    private final int maxMessagesPerConnection;
+
+    // Idle connections, most recently used first
+    private final Deque<PooledTransport> idle = new ArrayDeque<>();
+    private final Semaphore permits;
+
+    private final AtomicLong sent = new AtomicLong();
+    private final AtomicLong failed = new AtomicLong();
+    private final AtomicLong sendNanos = new AtomicLong();
+    private final AtomicLong maxSendNanos = new AtomicLong();
+    private final AtomicLong lastSendNanos = new AtomicLong();
+    private final AtomicLong connectionsOpened = new AtomicLong();
+    private final AtomicLong connectNanos = new AtomicLong();
+    private final AtomicLong connectionsReused = new AtomicLong();
+
+    public PooledMailSender(
+            MailProperties mailProperties,
+            @Value("${app.mail.pool.max-connections:2}") int maxConnections,
+            @Value("${app.mail.pool.borrow-timeout:30000}") long borrowTimeoutMillis,
+            @Value("${app.mail.pool.validate-after:30000}") long validateAfterMillis,
+            @Value("${app.mail.pool.max-idle:120000}") long maxIdleMillis,
+            @Value("${app.mail.pool.max-messages:100}") int maxMessagesPerConnection) {
+        setHost(mailProperties.getHost());
+        if (mailProperties.getPort() != null) {
+            setPort(mailProperties.getPort());
+        }
+        setUsername(mailProperties.getUsername());
+        setPassword(mailProperties.getPassword());
+        setProtocol(mailProperties.getProtocol());
+        if (mailProperties.getDefaultEncoding() != null) {
+            setDefaultEncoding(mailProperties.getDefaultEncoding().name());
+        }
+        Properties javaMailProperties = new Properties();
+        javaMailProperties.putAll(mailProperties.getProperties());
+        setJavaMailProperties(javaMailProperties);
+
+        this.maxConnections = maxConnections;
+        this.borrowTimeoutMillis = borrowTimeoutMillis;
+        this.validateAfterMillis = validateAfterMillis;
+        this.maxIdleMillis = maxIdleMillis;
+        this.maxMessagesPerConnection = maxMessagesPerConnection;
+        this.permits = new Semaphore(maxConnections, true);
+    }
+
+    /**
+     * Same contract as JavaMailSenderImpl.doSend, over a pooled connection
+     */
+    @Override
+    protected void doSend(MimeMessage[] mimeMessages, Object[] originalMessages) throws MailException {
+        Map<Object, Exception> failedMessages = new LinkedHashMap<>();
+
+        PooledTransport pooled;
+        try {
+            pooled = borrow();
+        } catch (AuthenticationFailedException ex) {
+            throw new MailAuthenticationException(ex);
+        } catch (Exception ex) {
+            // Nothing was sent
+            for (int i = 0; i < mimeMessages.length; i++) {
+                failedMessages.put(originalMessages != null ? originalMessages[i] : mimeMessages[i], ex);
+            }
+            failed.addAndGet(mimeMessages.length);
+            throw new MailSendException("Mail server connection failed", ex, failedMessages);
+        }
+
+        boolean reusable = true;
+        try {
+            for (int i = 0; i < mimeMessages.length; i++) {
+                Object original = originalMessages != null ? originalMessages[i] : mimeMessages[i];
+                if (!reusable) {
+                    // The connection broke on an earlier message of this call
+                    failedMessages.put(original, new MessagingException("SMTP connection lost"));
+                    failed.incrementAndGet();
+                    continue;
+                }
+                long start = System.nanoTime();
+                try {
+                    send(pooled, mimeMessages[i]);
+                    record(System.nanoTime() - start);
+                } catch (Exception ex) {
+                    failedMessages.put(original, ex);
+                    failed.incrementAndGet();
+                    // A rejected recipient leaves the session usable; anything else may not
+                    reusable = ex instanceof SendFailedException;
+                }
+            }
+        } finally {
+            release(pooled, reusable);
+        }
+
+        if (!failedMessages.isEmpty()) {
+            throw new MailSendException(failedMessages);
+        }
+    }
+
+    /**
+     * Close the connections that have been idle for longer than app.mail.pool.max-idle,
+     * before the server drops them on its side
+     */
+    @Scheduled(fixedDelayString = "${app.mail.pool.max-idle:120000}")
+    public void evictIdle() {
+        long now = System.currentTimeMillis();
+        while (true) {
+            PooledTransport expired;
+            synchronized (idle) {
+                PooledTransport oldest = idle.peekLast();
+                if (oldest == null || now - oldest.lastUsed <= maxIdleMillis) {
+                    return;
+                }
+                expired = idle.pollLast();
+            }
+            close(expired);
+        }
+    }
+
+    @PreDestroy
+    public void closeAll() {
+        while (true) {
+            PooledTransport pooled;
+            synchronized (idle) {
+                pooled = idle.poll();
+            }
+            if (pooled == null) {
+                return;
+            }
+            close(pooled);
+        }
+    }
+
+    /**
+     * Sends and connections since startup; times in milliseconds
+     */
+    public Map<String, Object> stats() {
+        int idleConnections;
+        synchronized (idle) {
+            idleConnections = idle.size();
+        }
+        long sentCount = sent.get();
+        long opened = connectionsOpened.get();
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("sent", sentCount);
+        stats.put("failed", failed.get());
+        stats.put("avgSendMillis", sentCount == 0 ? 0.0 : toMillis(sendNanos.get() / sentCount));
+        stats.put("maxSendMillis", toMillis(maxSendNanos.get()));
+        stats.put("lastSendMillis", toMillis(lastSendNanos.get()));
+        stats.put("connectionsOpened", opened);
+        stats.put("connectionsReused", connectionsReused.get());
+        stats.put("avgConnectMillis", opened == 0 ? 0.0 : toMillis(connectNanos.get() / opened));
+        stats.put("maxConnections", maxConnections);
+        stats.put("idleConnections", idleConnections);
+        stats.put("activeConnections", maxConnections - permits.availablePermits());
+        return stats;
+    }
+
+    private void send(PooledTransport pooled, MimeMessage mimeMessage) throws MessagingException {
+        if (mimeMessage.getSentDate() == null) {
+            mimeMessage.setSentDate(new Date());
+        }
+        String messageId = mimeMessage.getMessageID();
+        mimeMessage.saveChanges();
+        if (messageId != null) {
+            // saveChanges replaces an explicitly set message id
+            mimeMessage.setHeader("Message-ID", messageId);
+        }
+        Address[] addresses = mimeMessage.getAllRecipients();
+        pooled.transport.sendMessage(mimeMessage, addresses != null ? addresses : new Address[0]);
+        pooled.messages++;
+    }
+
+    private PooledTransport borrow() throws MessagingException, InterruptedException {
+        if (!permits.tryAcquire(borrowTimeoutMillis, TimeUnit.MILLISECONDS)) {
+            throw new MessagingException("No SMTP connection available");
+        }
+        try {
+            while (true) {
+                PooledTransport pooled;
+                synchronized (idle) {
+                    pooled = idle.poll();
+                }
+                if (pooled == null) {
+                    break;
+                }
+                long idleMillis = System.currentTimeMillis() - pooled.lastUsed;
+                if (idleMillis > maxIdleMillis
+                        || (idleMillis > validateAfterMillis && !pooled.transport.isConnected())) {
+                    close(pooled);
+                    continue;
+                }
+                connectionsReused.incrementAndGet();
+                return pooled;
+            }
+
+            long start = System.nanoTime();
+            Transport transport = connectTransport();
+            connectNanos.addAndGet(System.nanoTime() - start);
+            connectionsOpened.incrementAndGet();
+            return new PooledTransport(transport);
+        } catch (MessagingException | RuntimeException ex) {
+            permits.release();
+            throw ex;
+        }
+    }
+
+    private void release(PooledTransport pooled, boolean reusable) {
+        if (reusable && pooled.messages < maxMessagesPerConnection) {
+            pooled.lastUsed = System.currentTimeMillis();
+            synchronized (idle) {
+                idle.push(pooled);
+            }
+        } else {
+            close(pooled);
+        }
+        permits.release();
+    }
+
+    private void close(PooledTransport pooled) {
+        try {
+            pooled.transport.close();
+        } catch (MessagingException e) {
+            // Already gone on the server side
+        }
+    }
+
+    private void record(long nanos) {
+        sent.incrementAndGet();
+        sendNanos.addAndGet(nanos);
+        lastSendNanos.set(nanos);
+        maxSendNanos.accumulateAndGet(nanos, Math::max);
+    }
+
+    private static double toMillis(long nanos) {
+        return Math.round(nanos / 10_000.0) / 100.0;
+    }
+
+    private static class PooledTransport {
+
+        private final Transport transport;
+        private int messages;
+        private long lastUsed;
+
+        PooledTransport(Transport transport) {
+            this.transport = transport;
+        }
+    }
+}
@@ -0,0 +1,144 @@
+package com.bakery.warehouse.service;
+
+import com.bakery.warehouse.dto.ReportDashboardResponse;
+import com.bakery.warehouse.entity.Shipment;
+import com.bakery.warehouse.event.ShipmentChangedEvent;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.event.TransactionalEventListener;
+
+import java.time.LocalDate;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Bounded LRU cache of dashboard reports. Entries are dropped when a committed shipment change
+ * touches their shop/driver/date range, and evicted least-recently-used when the cache is full.
+ */
+@Component
+public class ReportCache {
+
+    private final int maxEntries;
+    private final Map<DashboardKey, ReportDashboardResponse> entries;
+
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong evictions = new AtomicLong();
+    private final AtomicLong invalidations = new AtomicLong();
+
+    // Bumped on every invalidation; a report computed across an invalidation is not cached
+    private final AtomicLong generation = new AtomicLong();
+
+    public ReportCache(@Value("${app.reports.cache.max-entries:500}") int maxEntries) {
+        this.maxEntries = maxEntries;
+        this.entries = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<DashboardKey, ReportDashboardResponse> eldest) {
+                if (size() > ReportCache.this.maxEntries) {
+                    evictions.incrementAndGet();
+                    return true;
+                }
+                return false;
+            }
+        };
+    }
+
+    public ReportDashboardResponse get(DashboardKey key) {
+        ReportDashboardResponse response;
+        synchronized (entries) {
+            response = entries.get(key);
+        }
+        if (response != null) {
+            hits.incrementAndGet();
+        } else {
+            misses.incrementAndGet();
+        }
+        return response;
+    }
+
+    /**
+     * Current generation, to be read before computing a report and passed back to put()
+     */
+    public long generation() {
+        return generation.get();
+    }
+
+    public void put(DashboardKey key, ReportDashboardResponse response, long computedAtGeneration) {
+        if (maxEntries <= 0) {
+            return;
+        }
+        synchronized (entries) {
+            if (generation.get() == computedAtGeneration) {
+                entries.put(key, response);
+            }
+        }
+    }
+
+    @TransactionalEventListener(fallbackExecution = true)
+    public void onShipmentChanged(ShipmentChangedEvent event) {
+        synchronized (entries) {
+            generation.incrementAndGet();
+            Iterator<DashboardKey> keys = entries.keySet().iterator();
+            while (keys.hasNext()) {
+                DashboardKey key = keys.next();
+                if (event.getScopes().stream().anyMatch(key::covers)) {
+                    keys.remove();
+                    invalidations.incrementAndGet();
+                }
+            }
+        }
+    }
+
+    public void invalidateAll() {
+        synchronized (entries) {
+            generation.incrementAndGet();
+            invalidations.addAndGet(entries.size());
+            entries.clear();
+        }
+    }
+
+    public Map<String, Object> stats() {
+        int size;
+        synchronized (entries) {
+            size = entries.size();
+        }
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("size", size);
+        stats.put("maxEntries", maxEntries);
+        stats.put("hits", hits.get());
+        stats.put("misses", misses.get());
+        stats.put("evictions", evictions.get());
+        stats.put("invalidations", invalidations.get());
+        return stats;
+    }
+
+    /**
+     * Cache key for dashboard reports; statuses must be given in a canonical (sorted) order
+     */
+    public record DashboardKey(LocalDate startDate,
+                               LocalDate endDate,
+                               Long shopId,
+                               Long driverId,
+                               List<Shipment.ShipmentStatus> statuses,
+                               String chartGroupBy) {
+
+        boolean covers(ShipmentChangedEvent.Scope scope) {
+            if (shopId != null && !Objects.equals(shopId, scope.getShopId())) {
+                return false;
+            }
+            if (driverId != null && !Objects.equals(driverId, scope.getDriverId())) {
+                return false;
+            }
+            LocalDate date = scope.getDate();
+            if (date == null) {
+                return true;
+            }
+            return (startDate == null || !date.isBefore(startDate))
+                    && (endDate == null || !date.isAfter(endDate));
+        }
+    }
+}
@@ -1,7 +1,10 @@
 package com.bakery.warehouse.service;
 
 import com.bakery.warehouse.dto.ReportDashboardResponse;
+import com.bakery.warehouse.dto.ShipmentPageResponse;
 import com.bakery.warehouse.entity.Shipment;
+import com.bakery.warehouse.entity.ShipmentItem;
+import com.bakery.warehouse.repository.ShipmentDailyRollupRepository;
 import com.bakery.warehouse.repository.ShipmentRepository;
 import com.bakery.warehouse.specification.ShipmentSpecification;
 import lombok.RequiredArgsConstructor;
@@ -10,6 +13,7 @@ import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
 
 import java.math.BigDecimal;
+import java.time.DayOfWeek;
 import java.time.LocalDate;
 import java.time.format.DateTimeFormatter;
 import java.time.temporal.TemporalAdjusters;
@@ -21,6 +25,9 @@ import java.util.stream.Collectors;
 public class ReportService {
 
     private final ShipmentRepository shipmentRepository;
+    private final ShipmentDailyRollupRepository rollupRepository;
+    private final ShipmentRollupService rollupService;
+    private final ReportCache reportCache;
 
     @Transactional(readOnly = true)
     public ReportDashboardResponse getDashboardReport(
@@ -31,6 +38,55 @@ public class ReportService {
             List<Shipment.ShipmentStatus> statuses,
             String chartGroupBy) {
 
+        String groupBy = chartGroupBy != null ? chartGroupBy.toUpperCase() : "MONTHLY";
+
+        // Canonical status order so that the same filter always maps to the same cache entry
+        List<Shipment.ShipmentStatus> sortedStatuses = statuses == null || statuses.isEmpty()
+                ? null
+                : statuses.stream().distinct().sorted().toList();
+
+        ReportCache.DashboardKey key = new ReportCache.DashboardKey(
+                startDate, endDate, shopId, driverId, sortedStatuses, groupBy);
+
+        ReportDashboardResponse cached = reportCache.get(key);
+        if (cached != null) {
+            return cached;
+        }
+
+        long generation = reportCache.generation();
+        ReportDashboardResponse response = computeDashboardReport(
+                startDate, endDate, shopId, driverId, sortedStatuses, groupBy);
+        reportCache.put(key, response, generation);
+        return response;
+    }
+
+    /**
+     * Rebuild the daily rollups and drop every cached report computed from them
+     */
+    public int rebuildRollups() {
+        int rows = rollupService.rebuild();
+        reportCache.invalidateAll();
+        return rows;
+    }
+
+    public Map<String, Object> getCacheStats() {
+        return reportCache.stats();
+    }
+
+    private ReportDashboardResponse computeDashboardReport(
+            LocalDate startDate,
+            LocalDate endDate,
+            Long shopId,
+            Long driverId,
+            List<Shipment.ShipmentStatus> statuses,
+            String groupBy) {
+
+        // Date range and shop filters are answered from the daily rollups;
+        // driver and status are not rollup dimensions and need the raw shipment data
+        if (startDate != null && endDate != null && driverId == null && (statuses == null || statuses.isEmpty())) {
+            return getDashboardReportFromRollups(startDate, endDate, shopId, groupBy);
+        }
+
         // Create specification for filters
         Specification<Shipment> spec = ShipmentSpecification.withFilters(
                 startDate, endDate, shopId, driverId, statuses
@@ -40,7 +96,7 @@ public class ReportService {
         List<Shipment> filteredShipments = shipmentRepository.findAll(spec);
 
         // Calculate summary totals
-        ReportDashboardResponse.SummaryTotals summary = calculateSummaryTotals(filteredShipments);
+        ReportDashboardResponse.SummaryTotals summary = calculateSummaryTotals(spec);
 
         // Get products sold aggregates
         List<ReportDashboardResponse.ProductAggregate> productsSold =
@@ -51,29 +107,56 @@ public class ReportService {
                 getProductAggregates(filteredShipments, false);
 
         // Generate chart data
-        ReportDashboardResponse.ChartData chartData =
-                generateChartData(filteredShipments, chartGroupBy != null ? chartGroupBy : "MONTHLY");
+        ReportDashboardResponse.ChartData chartData = generateChartData(
+                shipmentRepository.aggregateDailyTotals(spec), startDate, endDate, groupBy);
 
         return new ReportDashboardResponse(summary, productsSold, productsReturned, chartData);
     }
 
-    private ReportDashboardResponse.SummaryTotals calculateSummaryTotals(List<Shipment> shipments) {
-        if (shipments.isEmpty()) {
-            return new ReportDashboardResponse.SummaryTotals(
-                    BigDecimal.ZERO, 0, BigDecimal.ZERO, 0, BigDecimal.ZERO
-            );
+    private ReportDashboardResponse getDashboardReportFromRollups(
+            LocalDate startDate, LocalDate endDate, Long shopId, String groupBy) {
+
+        BigDecimal totalShipmentAmount = BigDecimal.ZERO;
+        int totalShipmentItems = 0;
+        BigDecimal totalReturnAmount = BigDecimal.ZERO;
+        int totalReturnItems = 0;
+
+        for (Object[] row : rollupRepository.sumByItemType(startDate, endDate, shopId)) {
+            BigDecimal amount = row[1] != null ? (BigDecimal) row[1] : BigDecimal.ZERO;
+            int itemCount = row[2] != null ? ((Number) row[2]).intValue() : 0;
+            if (row[0] == ShipmentItem.ItemType.RETURN) {
+                totalReturnAmount = amount;
+                totalReturnItems = itemCount;
+            } else {
+                totalShipmentAmount = amount;
+                totalShipmentItems = itemCount;
+            }
         }
 
-        BigDecimal totalShipmentAmount = shipmentRepository.calculateTotalShipmentAmount(shipments);
-        Integer totalShipmentItems = shipmentRepository.countTotalShipmentItems(shipments);
-        BigDecimal totalReturnAmount = shipmentRepository.calculateTotalReturnAmount(shipments);
-        Integer totalReturnItems = shipmentRepository.countTotalReturnItems(shipments);
-        BigDecimal netTotal = totalShipmentAmount.subtract(totalReturnAmount);
-
-        return new ReportDashboardResponse.SummaryTotals(
+        ReportDashboardResponse.SummaryTotals summary = new ReportDashboardResponse.SummaryTotals(
                 totalShipmentAmount, totalShipmentItems,
                 totalReturnAmount, totalReturnItems,
-                netTotal
+                totalShipmentAmount.subtract(totalReturnAmount)
+        );
+
+        List<ReportDashboardResponse.ProductAggregate> productsSold = toProductAggregates(
+                rollupRepository.getProductAggregates(startDate, endDate, shopId, ShipmentItem.ItemType.SHIPMENT));
+        List<ReportDashboardResponse.ProductAggregate> productsReturned = toProductAggregates(
+                rollupRepository.getProductAggregates(startDate, endDate, shopId, ShipmentItem.ItemType.RETURN));
+
+        ReportDashboardResponse.ChartData chartData = generateChartData(
+                rollupRepository.aggregateDailyTotals(startDate, endDate, shopId), startDate, endDate, groupBy);
+
+        return new ReportDashboardResponse(summary, productsSold, productsReturned, chartData);
+    }
+
+    private ReportDashboardResponse.SummaryTotals calculateSummaryTotals(Specification<Shipment> spec) {
+        ShipmentPageResponse.ShipmentAggregates totals = shipmentRepository.aggregateItemTotals(spec);
+
+        return new ReportDashboardResponse.SummaryTotals(
+                totals.getTotalShipmentAmount(), totals.getTotalShipmentItems(),
+                totals.getTotalReturnAmount(), totals.getTotalReturnItems(),
+                totals.getNetTotal()
         );
     }
 
@@ -88,6 +171,10 @@ public class ReportService {
                 ? shipmentRepository.getProductsSoldAggregates(shipments)
                 : shipmentRepository.getProductsReturnedAggregates(shipments);
 
+        return toProductAggregates(results);
+    }
+
+    private List<ReportDashboardResponse.ProductAggregate> toProductAggregates(List<Object[]> results) {
         return results.stream()
                 .map(row -> new ReportDashboardResponse.ProductAggregate(
                         (Long) row[0],           // productId
@@ -99,76 +186,108 @@ public class ReportService {
                 .collect(Collectors.toList());
     }
 
+    /**
+     * Build chart series from per-day totals ([date, shipmentAmount, returnAmount] ordered by date),
+     * rolled up into DAILY/WEEKLY/MONTHLY buckets. Every bucket between startDate and endDate
+     * is reported, with zeros for empty periods.
+     */
     private ReportDashboardResponse.ChartData generateChartData(
-            List<Shipment> shipments, String groupBy) {
+            List<Object[]> dailyTotals, LocalDate startDate, LocalDate endDate, String groupBy) {
+
+        // Without an explicit range, the chart spans the dates that have data
+        LocalDate firstDate = startDate;
+        LocalDate lastDate = endDate;
+        if (!dailyTotals.isEmpty()) {
+            if (firstDate == null) {
+                firstDate = (LocalDate) dailyTotals.get(0)[0];
+            }
+            if (lastDate == null) {
+                lastDate = (LocalDate) dailyTotals.get(dailyTotals.size() - 1)[0];
+            }
+        }
 
-        if (shipments.isEmpty()) {
+        if (firstDate == null || lastDate == null || firstDate.isAfter(lastDate)) {
             return new ReportDashboardResponse.ChartData(
                     groupBy, Collections.emptyList(),
                     Collections.emptyList(), Collections.emptyList(), Collections.emptyList()
             );
         }
 
-        // Group shipments by time period
-        Map<String, List<Shipment>> groupedShipments = groupShipmentsByPeriod(shipments, groupBy);
+        String period = groupBy.toUpperCase();
+
+        // Pre-fill every bucket in the range so that empty periods are reported as zero
+        // Each bucket holds [shipmentTotal, returnTotal], keyed by the bucket start date
+        TreeMap<LocalDate, BigDecimal[]> buckets = new TreeMap<>();
+        for (LocalDate bucket = bucketStart(firstDate, period);
+             !bucket.isAfter(lastDate);
+             bucket = nextBucket(bucket, period)) {
+            buckets.put(bucket, new BigDecimal[]{BigDecimal.ZERO, BigDecimal.ZERO});
+        }
 
-        // Sort keys chronologically
-        List<String> sortedKeys = new ArrayList<>(groupedShipments.keySet());
-        Collections.sort(sortedKeys);
+        for (Object[] row : dailyTotals) {
+            BigDecimal[] totals = buckets.computeIfAbsent(
+                    bucketStart((LocalDate) row[0], period),
+                    k -> new BigDecimal[]{BigDecimal.ZERO, BigDecimal.ZERO});
+            if (row[1] != null) {
+                totals[0] = totals[0].add((BigDecimal) row[1]);
+            }
+            if (row[2] != null) {
+                totals[1] = totals[1].add((BigDecimal) row[2]);
+            }
+        }
 
+        DateTimeFormatter formatter = bucketFormatter(period);
         List<String> labels = new ArrayList<>();
         List<BigDecimal> shipmentsData = new ArrayList<>();
         List<BigDecimal> returnsData = new ArrayList<>();
         List<BigDecimal> netData = new ArrayList<>();
 
-        for (String key : sortedKeys) {
-            List<Shipment> periodShipments = groupedShipments.get(key);
-
-            BigDecimal shipmentTotal = shipmentRepository.calculateTotalShipmentAmount(periodShipments);
-            BigDecimal returnTotal = shipmentRepository.calculateTotalReturnAmount(periodShipments);
-            BigDecimal net = shipmentTotal.subtract(returnTotal);
+        for (Map.Entry<LocalDate, BigDecimal[]> entry : buckets.entrySet()) {
+            BigDecimal shipmentTotal = entry.getValue()[0];
+            BigDecimal returnTotal = entry.getValue()[1];
 
-            labels.add(key);
+            labels.add(entry.getKey().format(formatter));
             shipmentsData.add(shipmentTotal);
             returnsData.add(returnTotal);
-            netData.add(net);
+            netData.add(shipmentTotal.subtract(returnTotal));
         }
 
         return new ReportDashboardResponse.ChartData(groupBy, labels, shipmentsData, returnsData, netData);
     }
 
-    private Map<String, List<Shipment>> groupShipmentsByPeriod(List<Shipment> shipments, String groupBy) {
-        DateTimeFormatter formatter;
-
-        switch (groupBy.toUpperCase()) {
+    private LocalDate bucketStart(LocalDate date, String period) {
+        switch (period) {
             case "DAILY":
-                formatter = DateTimeFormatter.ofPattern("yyyy-MM-dd");
-                break;
+                return date;
             case "WEEKLY":
-                return groupByWeek(shipments);
+                return date.with(TemporalAdjusters.previousOrSame(DayOfWeek.MONDAY));
             case "MONTHLY":
             default:
-                formatter = DateTimeFormatter.ofPattern("yyyy-MM");
-                break;
+                return date.withDayOfMonth(1);
         }
-
-        final DateTimeFormatter finalFormatter = formatter;
-        return shipments.stream()
-                .collect(Collectors.groupingBy(
-                        s -> s.getShipmentDate().format(finalFormatter)
-                ));
     }
 
-    private Map<String, List<Shipment>> groupByWeek(List<Shipment> shipments) {
-        Map<String, List<Shipment>> grouped = new LinkedHashMap<>();
-        DateTimeFormatter formatter = DateTimeFormatter.ofPattern("yyyy-'W'ww");
-
-        for (Shipment shipment : shipments) {
-            LocalDate weekStart = shipment.getShipmentDate().with(TemporalAdjusters.previousOrSame(java.time.DayOfWeek.MONDAY));
-            String key = weekStart.format(formatter);
-            grouped.computeIfAbsent(key, k -> new ArrayList<>()).add(shipment);
+    private LocalDate nextBucket(LocalDate bucket, String period) {
+        switch (period) {
+            case "DAILY":
+                return bucket.plusDays(1);
+            case "WEEKLY":
+                return bucket.plusWeeks(1);
+            case "MONTHLY":
+            default:
+                return bucket.plusMonths(1);
         }
+    }
 
-        return grouped;
+    private DateTimeFormatter bucketFormatter(String period) {
+        switch (period) {
+            case "DAILY":
+                return DateTimeFormatter.ofPattern("yyyy-MM-dd");
+            case "WEEKLY":
+                return DateTimeFormatter.ofPattern("YYYY-'W'ww");
+            case "MONTHLY":
+            default:
+                return DateTimeFormatter.ofPattern("yyyy-MM");
+        }
     }
 }
@@ -0,0 +1,133 @@
+package com.bakery.warehouse.service;
+
+import com.bakery.warehouse.entity.Shipment;
+import com.bakery.warehouse.repository.ShipmentRepository;
+import com.bakery.warehouse.specification.ShipmentSpecification;
+import lombok.RequiredArgsConstructor;
+import org.springframework.data.jpa.domain.Specification;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.math.BigDecimal;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDate;
+import java.util.Iterator;
+import java.util.List;
+import java.util.stream.Stream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Streams filtered shipments and their items as CSV, row by row from a database cursor,
+ * so memory use does not depend on the number of exported rows
+ */
+@Service
+@RequiredArgsConstructor
+public class ShipmentExportService {
+
+    private static final String[] HEADER = {
+            "Numero", "Data", "Stato", "Codice Negozio", "Negozio", "Autista",
+            "Tipo", "Codice Prodotto", "Prodotto", "Quantità", "Unità",
+            "Prezzo Unitario", "Totale", "Motivo Reso"
+    };
+
+    private final ShipmentRepository shipmentRepository;
+
+    /**
+     * Write the CSV export to the given stream (not closed by this method)
+     *
+     * @param gzip compress the output with gzip
+     * @return number of data rows written
+     */
+    @Transactional(readOnly = true)
+    public long exportCsv(
+            LocalDate startDate,
+            LocalDate endDate,
+            Long shopId,
+            Long driverId,
+            List<Shipment.ShipmentStatus> statuses,
+            boolean gzip,
+            OutputStream out) throws IOException {
+
+        Specification<Shipment> spec = ShipmentSpecification.withFilters(
+                startDate, endDate, shopId, driverId, statuses
+        );
+
+        try (Stream<Object[]> rows = shipmentRepository.streamExportRows(spec)) {
+            return writeCsv(rows, gzip, out);
+        }
+    }
+
+    /**
+     * Write an export containing only the header row
+     */
+    public void exportEmptyCsv(boolean gzip, OutputStream out) throws IOException {
+        writeCsv(Stream.empty(), gzip, out);
+    }
+
+    private long writeCsv(Stream<Object[]> rows, boolean gzip, OutputStream out) throws IOException {
+        GZIPOutputStream gzipOut = gzip ? new GZIPOutputStream(out, 8192) : null;
+        Writer writer = new BufferedWriter(new OutputStreamWriter(
+                gzipOut != null ? gzipOut : out, StandardCharsets.UTF_8));
+
+        // UTF-8 BOM so that spreadsheet applications detect the encoding (accents, €)
+        writer.write('\uFEFF');
+        writeRow(writer, HEADER);
+
+        long count = 0;
+        Iterator<Object[]> iterator = rows.iterator();
+        String[] values = new String[HEADER.length];
+        while (iterator.hasNext()) {
+            Object[] row = iterator.next();
+            for (int i = 0; i < values.length; i++) {
+                values[i] = format(row[i]);
+            }
+            writeRow(writer, values);
+            count++;
+        }
+
+        writer.flush();
+        if (gzipOut != null) {
+            gzipOut.finish();
+        }
+        return count;
+    }
+
+    private void writeRow(Writer writer, String[] values) throws IOException {
+        for (int i = 0; i < values.length; i++) {
+            if (i > 0) {
+                writer.write(',');
+            }
+            writeField(writer, values[i]);
+        }
+        writer.write("\r\n");
+    }
+
+    private void writeField(Writer writer, String value) throws IOException {
+        if (value.indexOf(',') < 0 && value.indexOf('"') < 0
+                && value.indexOf('\n') < 0 && value.indexOf('\r') < 0) {
+            writer.write(value);
+            return;
+        }
+        writer.write('"');
+        writer.write(value.replace("\"", "\"\""));
+        writer.write('"');
+    }
+
+    private String format(Object value) {
+        if (value == null) {
+            return "";
+        }
+        if (value instanceof BigDecimal decimal) {
+            return decimal.toPlainString();
+        }
+        if (value instanceof Enum<?> enumValue) {
+            return enumValue.name();
+        }
+        return value.toString();
+    }
+}
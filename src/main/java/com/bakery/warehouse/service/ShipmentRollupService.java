@@ -0,0 +1,203 @@
+package com.bakery.warehouse.service;
+
+import com.bakery.warehouse.entity.Product;
+import com.bakery.warehouse.entity.Shipment;
+import com.bakery.warehouse.entity.ShipmentDailyRollup;
+import com.bakery.warehouse.entity.ShipmentItem;
+import com.bakery.warehouse.entity.Shop;
+import com.bakery.warehouse.repository.ShipmentDailyRollupRepository;
+import com.bakery.warehouse.repository.ShopRepository;
+import jakarta.persistence.EntityManager;
+import jakarta.persistence.PersistenceContext;
+import lombok.RequiredArgsConstructor;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Propagation;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.math.BigDecimal;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Keeps the shipment_daily_rollups table in sync with shipment items.
+ * Callers subtract a shipment's contribution before changing it and add it back afterwards,
+ * always inside the transaction that modifies the shipment.
+ * Changes lock the shop rows first, so two transactions changing the same shop's rollups run one after
+ * the other instead of overwriting each other's totals or creating the same row twice (the unique
+ * rollup key rejects any duplicate that slips through). The shop is locked rather than the rollup rows
+ * because rows that do not exist yet cannot be locked.
+ */
+@Service
+@RequiredArgsConstructor
+public class ShipmentRollupService {
+
+    private final ShipmentDailyRollupRepository rollupRepository;
+    private final ShopRepository shopRepository;
+
+    @PersistenceContext
+    private EntityManager entityManager;
+
+    @Transactional(propagation = Propagation.MANDATORY)
+    public void addShipment(Shipment shipment) {
+        applyItems(shipment.getShipmentDate(), shipment.getShop(), shipment.getItems(), 1);
+    }
+
+    @Transactional(propagation = Propagation.MANDATORY)
+    public void removeShipment(Shipment shipment) {
+        applyItems(shipment.getShipmentDate(), shipment.getShop(), shipment.getItems(), -1);
+    }
+
+    @Transactional(propagation = Propagation.MANDATORY)
+    public void addItems(Shipment shipment, Collection<ShipmentItem> items) {
+        applyItems(shipment.getShipmentDate(), shipment.getShop(), items, 1);
+    }
+
+    /**
+     * Add many new shipments at once, loading the affected rollup rows in a single query
+     */
+    @Transactional(propagation = Propagation.MANDATORY)
+    public void addShipments(Collection<Shipment> shipments) {
+        Map<RollupKey, Delta> deltas = new LinkedHashMap<>();
+        for (Shipment shipment : shipments) {
+            collect(deltas, shipment.getShipmentDate(), shipment.getShop(), shipment.getItems(), 1);
+        }
+        apply(deltas);
+    }
+
+    /**
+     * Rebuild all rollups from the raw shipment items (backfill for existing data)
+     *
+     * @return number of rollup rows written
+     */
+    @Transactional
+    public int rebuild() {
+        // Every rollup row is replaced, so hold off apply() for all shops until we commit
+        shopRepository.lockAll();
+        rollupRepository.deleteAllRollups();
+
+        List<ShipmentDailyRollup> rollups = new ArrayList<>();
+        for (Object[] row : rollupRepository.aggregateShipmentItems()) {
+            RollupKey key = new RollupKey((LocalDate) row[0], (Long) row[1], (Long) row[2],
+                    (ShipmentItem.ItemType) row[3], (ShipmentItem.ReturnReason) row[4]);
+            ShipmentDailyRollup rollup = newRollup(key);
+            rollup.setQuantity(orZero((BigDecimal) row[5]));
+            rollup.setAmount(orZero((BigDecimal) row[6]));
+            rollup.setItemCount((Long) row[7]);
+            rollups.add(rollup);
+        }
+
+        rollupRepository.saveAll(rollups);
+        return rollups.size();
+    }
+
+    private void applyItems(LocalDate date, Shop shop, Collection<ShipmentItem> items, int sign) {
+        Map<RollupKey, Delta> deltas = new LinkedHashMap<>();
+        collect(deltas, date, shop, items, sign);
+        apply(deltas);
+    }
+
+    private void collect(Map<RollupKey, Delta> deltas, LocalDate date, Shop shop,
+                         Collection<ShipmentItem> items, int sign) {
+        if (date == null || shop == null || items == null) {
+            return;
+        }
+
+        BigDecimal factor = BigDecimal.valueOf(sign);
+
+        for (ShipmentItem item : items) {
+            Delta delta = deltas.computeIfAbsent(RollupKey.of(date, shop, item), k -> new Delta());
+            delta.quantity = delta.quantity.add(orZero(item.getQuantity()).multiply(factor));
+            delta.amount = delta.amount.add(itemAmount(item).multiply(factor));
+            delta.itemCount += sign;
+        }
+    }
+
+    private void apply(Map<RollupKey, Delta> deltas) {
+        if (deltas.isEmpty()) {
+            return;
+        }
+
+        Set<Long> shopIds = new HashSet<>();
+        List<String> keys = new ArrayList<>();
+        for (RollupKey key : deltas.keySet()) {
+            shopIds.add(key.shopId());
+            keys.add(key.value());
+        }
+        // Other changes to these shops' rollups wait here until this transaction ends,
+        // so the rows read below cannot change before the new totals are written
+        shopRepository.lockByIds(shopIds);
+
+        Map<String, ShipmentDailyRollup> rollups = new HashMap<>();
+        for (ShipmentDailyRollup rollup : rollupRepository.findByKeys(keys)) {
+            rollups.put(rollup.getRollupKey(), rollup);
+        }
+
+        for (Map.Entry<RollupKey, Delta> entry : deltas.entrySet()) {
+            ShipmentDailyRollup rollup = rollups.computeIfAbsent(entry.getKey().value(), k -> newRollup(entry.getKey()));
+            Delta delta = entry.getValue();
+            rollup.setQuantity(rollup.getQuantity().add(delta.quantity));
+            rollup.setAmount(rollup.getAmount().add(delta.amount));
+            rollup.setItemCount(rollup.getItemCount() + delta.itemCount);
+
+            if (rollup.getItemCount() <= 0) {
+                if (rollup.getId() != null) {
+                    rollupRepository.delete(rollup);
+                }
+            } else {
+                rollupRepository.save(rollup);
+            }
+        }
+    }
+
+    private ShipmentDailyRollup newRollup(RollupKey key) {
+        ShipmentDailyRollup rollup = new ShipmentDailyRollup();
+        rollup.setRollupKey(key.value());
+        rollup.setRollupDate(key.date());
+        rollup.setShop(entityManager.getReference(Shop.class, key.shopId()));
+        rollup.setProduct(entityManager.getReference(Product.class, key.productId()));
+        rollup.setItemType(key.itemType());
+        rollup.setReturnReason(key.returnReason());
+        return rollup;
+    }
+
+    /**
+     * Same value ShipmentItem stores in totalPrice, computed here because new items
+     * only get their totalPrice when they are flushed
+     */
+    private BigDecimal itemAmount(ShipmentItem item) {
+        // What rebuild() reads back from shipment_items.total_price
+        return item.lineTotal();
+    }
+
+    private BigDecimal orZero(BigDecimal value) {
+        return value != null ? value : BigDecimal.ZERO;
+    }
+
+    private static class Delta {
+
+        private BigDecimal quantity = BigDecimal.ZERO;
+        private BigDecimal amount = BigDecimal.ZERO;
+        private long itemCount;
+    }
+
+    private record RollupKey(LocalDate date, Long shopId, Long productId,
+                             ShipmentItem.ItemType itemType, ShipmentItem.ReturnReason returnReason) {
+
+        static RollupKey of(LocalDate date, Shop shop, ShipmentItem item) {
+            ShipmentItem.ItemType type = item.getItemType() != null ? item.getItemType() : ShipmentItem.ItemType.SHIPMENT;
+            ShipmentItem.ReturnReason reason = type == ShipmentItem.ItemType.RETURN ? item.getReturnReason() : null;
+            return new RollupKey(date, shop.getId(), item.getProduct().getId(), type, reason);
+        }
+
+        String value() {
+            return ShipmentDailyRollup.keyOf(date, shopId, productId, itemType, returnReason);
+        }
+    }
+}
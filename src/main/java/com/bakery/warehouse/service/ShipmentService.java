@@ -1,40 +1,57 @@
 package com.bakery.warehouse.service;
 
+import com.bakery.warehouse.dto.ShipmentCursorPageResponse;
 import com.bakery.warehouse.dto.ShipmentPageResponse;
+import com.bakery.warehouse.dto.ShipmentPdfInfo;
 import com.bakery.warehouse.dto.ShipmentRequest;
+import com.bakery.warehouse.dto.ShipmentSummary;
 import com.bakery.warehouse.entity.*;
-import com.bakery.warehouse.repository.ProductRepository;
+import com.bakery.warehouse.event.ShipmentChangedEvent;
 import com.bakery.warehouse.repository.ShipmentItemRepository;
 import com.bakery.warehouse.repository.ShipmentRepository;
-import com.bakery.warehouse.repository.ShopRepository;
 import com.bakery.warehouse.repository.UserRepository;
 import com.bakery.warehouse.specification.ShipmentSpecification;
 import lombok.RequiredArgsConstructor;
+import org.springframework.context.ApplicationEventPublisher;
 import org.springframework.data.domain.Page;
 import org.springframework.data.domain.PageRequest;
 import org.springframework.data.domain.Pageable;
 import org.springframework.data.domain.Sort;
 import org.springframework.data.jpa.domain.Specification;
+import org.springframework.data.support.PageableExecutionUtils;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
 
+import java.io.IOException;
+import java.io.OutputStream;
 import java.math.BigDecimal;
+import java.nio.charset.StandardCharsets;
 import java.time.LocalDate;
+import java.time.format.DateTimeParseException;
 import java.util.ArrayList;
+import java.util.Base64;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.Function;
 
 @Service
 @RequiredArgsConstructor
 public class ShipmentService {
 
+    // List views show the most recent shipments first
+    private static final Sort LIST_SORT = Sort.by(Sort.Direction.DESC, "shipmentDate", "id");
+
     private final ShipmentRepository shipmentRepository;
     private final ShipmentItemRepository shipmentItemRepository;
     private final PDFService pdfService;
-    private final EmailService emailService;
-    private final WhatsAppService whatsAppService;
-    private final ProductRepository productRepository;
-    private final ShopRepository shopRepository;
+    private final NotificationDispatcher notificationDispatcher;
+    private final CatalogCache catalogCache;
     private final UserRepository userRepository;
+    private final ShipmentRollupService rollupService;
+    private final ApplicationEventPublisher eventPublisher;
 
     @Transactional
     public Shipment createShipment(Shipment shipment, User createdBy) {
@@ -44,8 +61,74 @@ public class ShipmentService {
         for (ShipmentItem item : shipment.getItems()) {
             item.setShipment(shipment);
         }
+        shipment.recalculateTotals();
+
+        Shipment savedShipment = shipmentRepository.save(shipment);
+        rollupService.addShipment(savedShipment);
+        publishChange(savedShipment, ShipmentChangedEvent.ChangeType.CREATED);
+        return savedShipment;
+    }
+
+    /**
+     * Create many draft shipments in one transaction. Shops and products come from the catalog cache,
+     * drivers are loaded once for the whole batch, and the inserts are sent in JDBC batches when the
+     * transaction commits.
+     */
+    @Transactional
+    public List<Shipment> createShipments(List<ShipmentRequest> requests, User createdBy) {
+        Set<Long> driverIds = new HashSet<>();
+        for (ShipmentRequest request : requests) {
+            if (request.getDriverId() != null) {
+                driverIds.add(request.getDriverId());
+            }
+        }
+
+        Map<Long, User> drivers = new HashMap<>();
+        userRepository.findAllById(driverIds).forEach(driver -> drivers.put(driver.getId(), driver));
+
+        List<Shipment> shipments = new ArrayList<>(requests.size());
+        for (ShipmentRequest request : requests) {
+            Shop shop = catalogCache.getShop(request.getShopId());
+
+            Shipment shipment = new Shipment();
+            shipment.setShop(shop);
+            shipment.setShipmentDate(request.getShipmentDate());
+            shipment.setNotes(request.getNotes());
+            shipment.setCreatedBy(createdBy);
+            shipment.setStatus(Shipment.ShipmentStatus.BOZZA);
+
+            if (request.getDriverId() != null) {
+                User driver = drivers.get(request.getDriverId());
+                if (driver == null) {
+                    throw new RuntimeException("Driver not found");
+                }
+                shipment.setDriver(driver);
+            }
+
+            if (request.getItems() != null) {
+                for (ShipmentRequest.ShipmentItemRequest itemReq : request.getItems()) {
+                    Product product = catalogCache.getProduct(itemReq.getProductId());
+
+                    ShipmentItem item = new ShipmentItem();
+                    item.setShipment(shipment);
+                    item.setProduct(product);
+                    item.setQuantity(BigDecimal.valueOf(itemReq.getQuantity()));
+                    item.setUnitPrice(product.getUnitPrice());
+                    item.setNotes(itemReq.getNotes());
+                    shipment.getItems().add(item);
+                }
+            }
+
+            shipment.recalculateTotals();
+            shipments.add(shipment);
+        }
 
-        return shipmentRepository.save(shipment);
+        List<Shipment> savedShipments = shipmentRepository.saveAll(shipments);
+        rollupService.addShipments(savedShipments);
+        for (Shipment savedShipment : savedShipments) {
+            publishChange(savedShipment, ShipmentChangedEvent.ChangeType.CREATED);
+        }
+        return savedShipments;
     }
 
     @Transactional
@@ -59,31 +142,15 @@ public class ShipmentService {
         // shipment.setPdfPath(pdfPath);
 
         Shipment savedShipment = shipmentRepository.save(shipment);
+        publishChange(savedShipment, ShipmentChangedEvent.ChangeType.STATUS_CHANGED);
 
-        sendNotifications(savedShipment);
+        // Sent by the dispatcher once this transaction commits
+        notificationDispatcher.enqueue(savedShipment,
+                ShipmentNotification.Channel.EMAIL, ShipmentNotification.Channel.WHATSAPP);
 
         return savedShipment;
     }
 
-    @Transactional
-    public void sendNotifications(Shipment shipment) {
-        try {
-            emailService.sendShipmentEmail(shipment);
-            shipment.setEmailSent(true);
-        } catch (Exception e) {
-            System.err.println("Failed to send email: " + e.getMessage());
-        }
-
-        try {
-            whatsAppService.sendShipmentWhatsApp(shipment);
-            shipment.setWhatsappSent(true);
-        } catch (Exception e) {
-            System.err.println("Failed to send WhatsApp: " + e.getMessage());
-        }
-
-        shipmentRepository.save(shipment);
-    }
-
     @Transactional
     public Shipment updateShipmentStatus(Long shipmentId, Shipment.ShipmentStatus status) {
         Shipment shipment = shipmentRepository.findById(shipmentId)
@@ -92,29 +159,19 @@ public class ShipmentService {
         Shipment.ShipmentStatus oldStatus = shipment.getStatus();
         shipment.setStatus(status);
         Shipment saved = shipmentRepository.save(shipment);
+        publishChange(saved, ShipmentChangedEvent.ChangeType.STATUS_CHANGED);
 
         // Send email when status changes to CONSEGNATA
         if (status == Shipment.ShipmentStatus.CONSEGNATA && oldStatus != Shipment.ShipmentStatus.CONSEGNATA) {
-            try {
-                if (shipment.getPdfPath() != null && !shipment.getPdfPath().isEmpty()) {
-                    emailService.sendShipmentEmail(shipment);
-                    shipment.setEmailSent(true);
-                    saved = shipmentRepository.save(shipment);
-                }
-            } catch (Exception e) {
-                System.err.println("Failed to send delivery email: " + e.getMessage());
-            }
+            notificationDispatcher.enqueue(saved, ShipmentNotification.Channel.EMAIL);
         }
 
         return saved;
     }
 
-    public List<Shipment> getShipmentsByShop(Long shopId) {
-        return shipmentRepository.findByShopAndDateRange(
-                shopId,
-                LocalDate.now().minusMonths(3),
-                LocalDate.now()
-        );
+    @Transactional(readOnly = true)
+    public List<ShipmentSummary> getShipmentsByShop(Long shopId) {
+        return getShipmentSummaries(LocalDate.now().minusMonths(3), LocalDate.now(), shopId, null, null);
     }
 
     public Shipment getLastShipmentForShop(Long shopId) {
@@ -149,16 +206,19 @@ public class ShipmentService {
                 .orElseThrow(() -> new RuntimeException("Shipment not found"));
     }
 
-    @Transactional
-    public Shipment regenerateShipmentPdf(Long id) {
-        Shipment shipment = getShipmentWithDetails(id);
-        try {
-            String pdfPath = pdfService.generateShipmentPDF(shipment);
-            shipment.setPdfPath(pdfPath);
-            return shipmentRepository.save(shipment);
-        } catch (Exception e) {
-            throw new RuntimeException("Errore durante la generazione del PDF", e);
-        }
+    /**
+     * Render the driver's manifest for the day (all of their shipments, one query) to the given stream
+     */
+    public void writeDriverManifest(Long driverId, LocalDate date, OutputStream out) throws IOException {
+        User driver = userRepository.findById(driverId)
+                .orElseThrow(() -> new RuntimeException("Driver not found"));
+        List<Shipment> shipments = shipmentRepository.findDetailedByDriverAndDate(driverId, date);
+        pdfService.writeDriverManifest(driver, date, shipments, out);
+    }
+
+    public ShipmentPdfInfo getPdfInfo(Long id) {
+        return shipmentRepository.findPdfInfoById(id)
+                .orElseThrow(() -> new RuntimeException("Shipment not found"));
     }
 
     public List<Shipment> getAllShipments() {
@@ -167,7 +227,11 @@ public class ShipmentService {
 
     @Transactional
     public void deleteShipment(Long id) {
-        shipmentRepository.deleteById(id);
+        shipmentRepository.findById(id).ifPresent(shipment -> {
+            rollupService.removeShipment(shipment);
+            publishChange(shipment, ShipmentChangedEvent.ChangeType.DELETED);
+            shipmentRepository.delete(shipment);
+        });
     }
 
     @Transactional
@@ -175,10 +239,13 @@ public class ShipmentService {
         Shipment shipment = shipmentRepository.findById(id)
                 .orElseThrow(() -> new RuntimeException("Shipment not found"));
 
+        // Take the current contribution out of the rollups; it is added back after the changes
+        rollupService.removeShipment(shipment);
+        ShipmentChangedEvent.Scope previousScope = scopeOf(shipment);
+
         // Update basic shipment fields
         if (request.getShopId() != null) {
-            Shop shop = shopRepository.findById(request.getShopId())
-                    .orElseThrow(() -> new RuntimeException("Shop not found"));
+            Shop shop = catalogCache.getShop(request.getShopId());
             shipment.setShop(shop);
         }
 
@@ -211,8 +278,7 @@ public class ShipmentService {
 
             // Add new shipment items
             for (ShipmentRequest.ShipmentItemRequest itemReq : request.getItems()) {
-                Product product = productRepository.findById(itemReq.getProductId())
-                        .orElseThrow(() -> new RuntimeException("Product not found"));
+                Product product = catalogCache.getProduct(itemReq.getProductId());
 
                 ShipmentItem item = new ShipmentItem();
                 item.setShipment(shipment);
@@ -232,8 +298,7 @@ public class ShipmentService {
 
             // Add new return items
             for (ShipmentRequest.ShipmentItemRequest itemReq : request.getReturnItems()) {
-                Product product = productRepository.findById(itemReq.getProductId())
-                        .orElseThrow(() -> new RuntimeException("Product not found"));
+                Product product = catalogCache.getProduct(itemReq.getProductId());
 
                 ShipmentItem item = new ShipmentItem();
                 item.setShipment(shipment);
@@ -249,8 +314,12 @@ public class ShipmentService {
             }
         }
 
+        shipment.recalculateTotals();
+
         Shipment savedShipment = shipmentRepository.save(shipment);
-        return regeneratePdfIfNeeded(savedShipment);
+        rollupService.addShipment(savedShipment);
+        publishChange(savedShipment, ShipmentChangedEvent.ChangeType.UPDATED, previousScope);
+        return savedShipment;
     }
 
     @Transactional
@@ -259,9 +328,9 @@ public class ShipmentService {
                 .orElseThrow(() -> new RuntimeException("Shipment not found"));
 
         // Add return items
+        List<ShipmentItem> addedItems = new ArrayList<>();
         for (ShipmentRequest.ShipmentItemRequest itemReq : returnItems) {
-            Product product = productRepository.findById(itemReq.getProductId())
-                    .orElseThrow(() -> new RuntimeException("Product not found"));
+            Product product = catalogCache.getProduct(itemReq.getProductId());
 
             ShipmentItem item = new ShipmentItem();
             item.setShipment(shipment);
@@ -274,28 +343,35 @@ public class ShipmentService {
             }
             item.setNotes(itemReq.getNotes());
             shipment.getItems().add(item);
+            addedItems.add(item);
         }
+        shipment.recalculateTotals();
 
         Shipment savedShipment = shipmentRepository.save(shipment);
-        return regeneratePdfIfNeeded(savedShipment);
+        rollupService.addItems(savedShipment, addedItems);
+        publishChange(savedShipment, ShipmentChangedEvent.ChangeType.UPDATED);
+        return savedShipment;
     }
 
-    private boolean hasGeneratedPdf(Shipment shipment) {
-        return shipment.getPdfPath() != null && !shipment.getPdfPath().isBlank();
+    private ShipmentChangedEvent.Scope scopeOf(Shipment shipment) {
+        return new ShipmentChangedEvent.Scope(
+                shipment.getShop() != null ? shipment.getShop().getId() : null,
+                shipment.getDriver() != null ? shipment.getDriver().getId() : null,
+                shipment.getShipmentDate()
+        );
     }
 
-    private Shipment regeneratePdfIfNeeded(Shipment shipment) {
-        if (!hasGeneratedPdf(shipment)) {
-            return shipment;
-        }
-
-        try {
-            String pdfPath = pdfService.generateShipmentPDF(shipment);
-            shipment.setPdfPath(pdfPath);
-            return shipmentRepository.save(shipment);
-        } catch (Exception e) {
-            throw new RuntimeException("Errore nella rigenerazione del PDF", e);
+    /**
+     * Notify listeners (report cache, ...) of a change; previous scopes cover shop/driver/date moves
+     */
+    private void publishChange(Shipment shipment, ShipmentChangedEvent.ChangeType changeType,
+                               ShipmentChangedEvent.Scope... previousScopes) {
+        List<ShipmentChangedEvent.Scope> scopes = new ArrayList<>(List.of(previousScopes));
+        ShipmentChangedEvent.Scope currentScope = scopeOf(shipment);
+        if (!scopes.contains(currentScope)) {
+            scopes.add(currentScope);
         }
+        eventPublisher.publishEvent(new ShipmentChangedEvent(shipment.getId(), changeType, scopes));
     }
 
     /**
@@ -311,14 +387,15 @@ public class ShipmentService {
      * @return Paginated response with aggregates
      */
     @Transactional(readOnly = true)
-    public ShipmentPageResponse getShipmentsPaginated(
+    public ShipmentPageResponse<?> getShipmentsPaginated(
             LocalDate startDate,
             LocalDate endDate,
             Long shopId,
             Long driverId,
             List<Shipment.ShipmentStatus> statuses,
             int page,
-            int size) {
+            int size,
+            boolean detail) {
 
         // Create specification for filters
         Specification<Shipment> spec = ShipmentSpecification.withFilters(
@@ -326,59 +403,154 @@ public class ShipmentService {
         );
 
         // Create pageable with sorting (most recent first)
-        Pageable pageable = PageRequest.of(page, size, Sort.by(Sort.Direction.DESC, "shipmentDate", "id"));
+        Pageable pageable = PageRequest.of(page, size, LIST_SORT);
+
+        if (detail) {
+            // Page of ids first, then those shipments with their details
+            List<Long> ids = shipmentRepository.findIds(spec, LIST_SORT, pageable.getOffset(), size);
+            return buildPage(findDetailedInOrder(ids), pageable, spec);
+        }
 
-        // Get paginated data
-        Page<Shipment> shipmentPage = shipmentRepository.findAll(spec, pageable);
+        return buildPage(shipmentRepository.findSummaries(spec, LIST_SORT, pageable.getOffset(), size), pageable, spec);
+    }
 
-        // Get ALL filtered shipments (for aggregates calculation)
-        // We need this to calculate totals on all filtered data, not just current page
-        List<Shipment> allFilteredShipments = shipmentRepository.findAll(spec);
+    private <T> ShipmentPageResponse<T> buildPage(List<T> content, Pageable pageable, Specification<Shipment> spec) {
+        Page<T> shipmentPage = PageableExecutionUtils.getPage(content, pageable, () -> shipmentRepository.count(spec));
 
-        // Calculate aggregates on ALL filtered data
-        ShipmentPageResponse.ShipmentAggregates aggregates = calculateAggregates(allFilteredShipments);
+        // Calculate aggregates on ALL filtered data in a single query driven by the same filters
+        ShipmentPageResponse.ShipmentAggregates aggregates = shipmentRepository.aggregateItemTotals(spec);
 
         // Build response
-        return new ShipmentPageResponse(
+        return new ShipmentPageResponse<>(
                 shipmentPage.getContent(),
                 (int) shipmentPage.getTotalElements(),
                 shipmentPage.getTotalPages(),
-                page,
-                size,
+                pageable.getPageNumber(),
+                pageable.getPageSize(),
                 aggregates
         );
     }
 
     /**
-     * Calculate aggregates for a list of shipments
+     * Get a page of shipments with keyset (seek) pagination, most recent first
+     *
+     * @param cursor        Cursor returned with the previous page (null or empty for the first page)
+     * @param size          Page size, at least 1
+     * @param includeTotals Also calculate total count and aggregates on ALL filtered data
+     * @param detail        Return full shipments with items instead of summary rows
+     * @return Page of shipments with the cursor for the next page
+     * @throws IllegalArgumentException if the size is below 1 or the cursor is malformed
      */
-    private ShipmentPageResponse.ShipmentAggregates calculateAggregates(List<Shipment> shipments) {
-        if (shipments.isEmpty()) {
-            return new ShipmentPageResponse.ShipmentAggregates(
-                    BigDecimal.ZERO, 0,
-                    BigDecimal.ZERO, 0,
-                    BigDecimal.ZERO
-            );
+    @Transactional(readOnly = true)
+    public ShipmentCursorPageResponse<?> getShipmentsByCursor(
+            LocalDate startDate,
+            LocalDate endDate,
+            Long shopId,
+            Long driverId,
+            List<Shipment.ShipmentStatus> statuses,
+            String cursor,
+            int size,
+            boolean includeTotals,
+            boolean detail) {
+
+        if (size < 1) {
+            throw new IllegalArgumentException("Invalid page size: " + size);
+        }
+
+        Specification<Shipment> filters = ShipmentSpecification.withFilters(
+                startDate, endDate, shopId, driverId, statuses
+        );
+
+        // Seek past the last row of the previous page instead of skipping rows with OFFSET
+        Specification<Shipment> spec = filters;
+        if (cursor != null && !cursor.isBlank()) {
+            CursorPosition position = decodeCursor(cursor);
+            spec = spec.and(ShipmentSpecification.after(position.shipmentDate(), position.id()));
         }
 
-        // Calculate totals using repository queries (optimized)
-        BigDecimal totalShipmentAmount = shipmentRepository.calculateTotalShipmentAmount(shipments);
-        Integer totalShipmentItems = shipmentRepository.countTotalShipmentItems(shipments);
-        BigDecimal totalReturnAmount = shipmentRepository.calculateTotalReturnAmount(shipments);
-        Integer totalReturnItems = shipmentRepository.countTotalReturnItems(shipments);
-
-        // Calculate net total
-        BigDecimal netTotal = totalShipmentAmount.subtract(totalReturnAmount);
-
-        return new ShipmentPageResponse.ShipmentAggregates(
-                totalShipmentAmount,
-                totalShipmentItems,
-                totalReturnAmount,
-                totalReturnItems,
-                netTotal
+        // Fetch one extra row to know whether there is a next page
+        if (detail) {
+            List<Shipment> rows = findDetailedInOrder(shipmentRepository.findIds(spec, LIST_SORT, 0, size + 1));
+            return buildCursorPage(rows, size, s -> encodeCursor(s.getShipmentDate(), s.getId()), filters, includeTotals);
+        }
+
+        List<ShipmentSummary> rows = shipmentRepository.findSummaries(spec, LIST_SORT, 0, size + 1);
+        return buildCursorPage(rows, size, s -> encodeCursor(s.getShipmentDate(), s.getId()), filters, includeTotals);
+    }
+
+    private <T> ShipmentCursorPageResponse<T> buildCursorPage(
+            List<T> rows,
+            int size,
+            Function<T, String> cursorOf,
+            Specification<Shipment> filters,
+            boolean includeTotals) {
+
+        boolean hasNext = rows.size() > size;
+        List<T> content = hasNext ? rows.subList(0, size) : rows;
+
+        String nextCursor = hasNext ? cursorOf.apply(content.get(content.size() - 1)) : null;
+
+        Long totalElements = null;
+        ShipmentPageResponse.ShipmentAggregates aggregates = null;
+        if (includeTotals) {
+            totalElements = shipmentRepository.count(filters);
+            aggregates = shipmentRepository.aggregateItemTotals(filters);
+        }
+
+        return new ShipmentCursorPageResponse<>(
+                new ArrayList<>(content),
+                size,
+                nextCursor,
+                hasNext,
+                totalElements,
+                aggregates
         );
     }
 
+    /**
+     * Load shipments with items, products, shop and driver in one query, keeping the order of the ids
+     */
+    private List<Shipment> findDetailedInOrder(List<Long> ids) {
+        if (ids.isEmpty()) {
+            return new ArrayList<>();
+        }
+
+        Map<Long, Shipment> shipmentsById = new HashMap<>();
+        for (Shipment shipment : shipmentRepository.findDetailedByIdIn(ids)) {
+            shipmentsById.put(shipment.getId(), shipment);
+        }
+
+        List<Shipment> shipments = new ArrayList<>(ids.size());
+        for (Long id : ids) {
+            Shipment shipment = shipmentsById.get(id);
+            if (shipment != null) {
+                shipments.add(shipment);
+            }
+        }
+        return shipments;
+    }
+
+    private String encodeCursor(LocalDate shipmentDate, Long id) {
+        String position = shipmentDate + "|" + id;
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(position.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private CursorPosition decodeCursor(String cursor) {
+        try {
+            String position = new String(Base64.getUrlDecoder().decode(cursor), StandardCharsets.UTF_8);
+            String[] parts = position.split("\\|");
+            if (parts.length != 2) {
+                throw new IllegalArgumentException(position);
+            }
+            return new CursorPosition(LocalDate.parse(parts[0]), Long.valueOf(parts[1]));
+        } catch (IllegalArgumentException | DateTimeParseException e) {
+            throw new IllegalArgumentException("Invalid cursor", e);
+        }
+    }
+
+    private record CursorPosition(LocalDate shipmentDate, Long id) {
+    }
+
     @Transactional(readOnly = true)
     public List<Shipment> getShipmentsFiltered(
             LocalDate startDate,
@@ -391,7 +563,24 @@ public class ShipmentService {
                 startDate, endDate, shopId, driverId, statuses
         );
 
-        Sort sort = Sort.by(Sort.Direction.DESC, "shipmentDate", "id");
-        return shipmentRepository.findAll(spec, sort);
+        return shipmentRepository.findAll(spec, LIST_SORT);
+    }
+
+    /**
+     * Summary rows (no items) of the shipments matching the filters, most recent first
+     */
+    @Transactional(readOnly = true)
+    public List<ShipmentSummary> getShipmentSummaries(
+            LocalDate startDate,
+            LocalDate endDate,
+            Long shopId,
+            Long driverId,
+            List<Shipment.ShipmentStatus> statuses) {
+
+        Specification<Shipment> spec = ShipmentSpecification.withFilters(
+                startDate, endDate, shopId, driverId, statuses
+        );
+
+        return shipmentRepository.findSummaries(spec, LIST_SORT);
     }
 }
@@ -0,0 +1,54 @@
+package com.bakery.warehouse.service;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * In-process stand-in for Twilio (app.whatsapp.provider: stub), to run and load-test the WhatsApp
+ * notifications offline. Each message takes app.whatsapp.stub.latency; above app.whatsapp.stub.max-per-second
+ * messages are refused with 429 and a Retry-After, like a real provider, and a random share
+ * (app.whatsapp.stub.failure-rate) is refused with 503.
+ */
+@Component
+@ConditionalOnProperty(name = "app.whatsapp.provider", havingValue = "stub")
+public class StubWhatsAppProvider implements WhatsAppProvider {
+
+    private final long latencyMillis;
+    private final double failureRate;
+    private final TokenBucket providerLimit;
+    private final AtomicLong sequence = new AtomicLong();
+
+    public StubWhatsAppProvider(
+            @Value("${app.whatsapp.stub.latency:200}") long latencyMillis,
+            @Value("${app.whatsapp.stub.failure-rate:0}") double failureRate,
+            @Value("${app.whatsapp.stub.max-per-second:20}") double maxPerSecond) {
+        this.latencyMillis = latencyMillis;
+        this.failureRate = failureRate;
+        this.providerLimit = new TokenBucket(maxPerSecond, (int) Math.ceil(maxPerSecond));
+    }
+
+    @Override
+    public String send(String to, String body) {
+        long waitNanos = providerLimit.tryAcquire();
+        if (waitNanos > 0) {
+            throw new WhatsAppSendException(429, Duration.ofSeconds(Math.max(1, TimeUnit.NANOSECONDS.toSeconds(waitNanos))),
+                    "Too many requests (stub)");
+        }
+        try {
+            Thread.sleep(latencyMillis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new WhatsAppSendException(WhatsAppSendException.NO_RESPONSE, "Interrupted (stub)", e);
+        }
+        if (ThreadLocalRandom.current().nextDouble() < failureRate) {
+            throw new WhatsAppSendException(503, null, "Service unavailable (stub)");
+        }
+        return String.format("SM%032x", sequence.incrementAndGet());
+    }
+}
@@ -0,0 +1,68 @@
+package com.bakery.warehouse.service;
+
+import java.time.Duration;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Rate limiter: a permit per token, tokens refill at a steady rate up to a burst size.
+ * Can be paused for everyone, e.g. when a provider answers 429 with a Retry-After.
+ */
+class TokenBucket {
+
+    private final double tokensPerNano;
+    private final double burst;
+
+    private double tokens;
+    private long refilledAt;
+    private long pausedUntil;
+
+    TokenBucket(double perSecond, int burst) {
+        this.tokensPerNano = perSecond / TimeUnit.SECONDS.toNanos(1);
+        this.burst = Math.max(1, burst);
+        this.tokens = this.burst;
+        this.refilledAt = System.nanoTime();
+        this.pausedUntil = refilledAt;
+    }
+
+    /**
+     * Take a token, waiting for one if the bucket is empty or paused
+     */
+    void acquire() throws InterruptedException {
+        while (true) {
+            long waitNanos = tryAcquire();
+            if (waitNanos == 0) {
+                return;
+            }
+            TimeUnit.NANOSECONDS.sleep(waitNanos);
+        }
+    }
+
+    /**
+     * Take a token if there is one
+     *
+     * @return 0 if taken, otherwise how long until one may be available (nanoseconds)
+     */
+    synchronized long tryAcquire() {
+        long now = System.nanoTime();
+        if (now - pausedUntil < 0) {
+            return pausedUntil - now;
+        }
+        tokens = Math.min(burst, tokens + (now - refilledAt) * tokensPerNano);
+        refilledAt = now;
+        if (tokens >= 1) {
+            tokens -= 1;
+            return 0;
+        }
+        return Math.max(1, (long) Math.ceil((1 - tokens) / tokensPerNano));
+    }
+
+    /**
+     * Hand out no token for the given time
+     */
+    synchronized void pause(Duration duration) {
+        long until = System.nanoTime() + duration.toNanos();
+        if (until - pausedUntil > 0) {
+            pausedUntil = until;
+        }
+    }
+}
@@ -0,0 +1,131 @@
+package com.bakery.warehouse.service;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.net.ConnectException;
+import java.net.URI;
+import java.net.URLEncoder;
+import java.net.http.HttpClient;
+import java.net.http.HttpConnectTimeoutException;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.util.Base64;
+
+/**
+ * Sends WhatsApp messages through the Twilio Messages API. Called directly over HTTP rather than through
+ * the Twilio SDK, whose errors do not carry the Retry-After header and whose client retries on its own.
+ */
+@Component
+@ConditionalOnProperty(name = "app.whatsapp.provider", havingValue = "twilio", matchIfMissing = true)
+public class TwilioWhatsAppProvider implements WhatsAppProvider {
+
+    private static final String MESSAGES_URL = "https://api.twilio.com/2010-04-01/Accounts/%s/Messages.json";
+
+    private final ObjectMapper objectMapper;
+    private final String accountSid;
+    private final String authToken;
+    private final String whatsappFrom;
+    private final HttpClient httpClient;
+
+    public TwilioWhatsAppProvider(
+            ObjectMapper objectMapper,
+            @Value("${app.twilio.account-sid}") String accountSid,
+            @Value("${app.twilio.auth-token}") String authToken,
+            @Value("${app.twilio.whatsapp-from}") String whatsappFrom) {
+        this.objectMapper = objectMapper;
+        this.accountSid = accountSid;
+        this.authToken = authToken;
+        this.whatsappFrom = whatsappFrom;
+        this.httpClient = HttpClient.newBuilder()
+                .connectTimeout(Duration.ofSeconds(10))
+                .build();
+    }
+
+    @Override
+    public boolean isConfigured() {
+        return accountSid != null && !accountSid.startsWith("your-") &&
+                authToken != null && !authToken.startsWith("your-") &&
+                whatsappFrom != null && !whatsappFrom.startsWith("whatsapp:+1415");
+    }
+
+    @Override
+    public String send(String to, String body) {
+        String form = "To=" + encode("whatsapp:" + to)
+                + "&From=" + encode(whatsappFrom)
+                + "&Body=" + encode(body);
+        String credentials = Base64.getEncoder()
+                .encodeToString((accountSid + ":" + authToken).getBytes(StandardCharsets.UTF_8));
+        HttpRequest request = HttpRequest.newBuilder(URI.create(String.format(MESSAGES_URL, accountSid)))
+                .timeout(Duration.ofSeconds(30))
+                .header("Authorization", "Basic " + credentials)
+                .header("Content-Type", "application/x-www-form-urlencoded")
+                .POST(HttpRequest.BodyPublishers.ofString(form))
+                .build();
+
+        HttpResponse<String> response;
+        try {
+            response = httpClient.send(request, HttpResponse.BodyHandlers.ofString());
+        } catch (HttpConnectTimeoutException | ConnectException e) {
+            throw new WhatsAppSendException(WhatsAppSendException.NOT_CONNECTED,
+                    "Twilio not reachable: " + e.getMessage(), e);
+        } catch (IOException e) {
+            // Timed out or cut off after the POST went out: Twilio may have queued the message already
+            throw new WhatsAppSendException(WhatsAppSendException.NO_RESPONSE,
+                    "No answer from Twilio, the message may have been sent: " + e.getMessage(), e);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new WhatsAppSendException(WhatsAppSendException.NO_RESPONSE,
+                    "Interrupted while sending to Twilio", e);
+        }
+
+        JsonNode json = readJson(response.body());
+        if (response.statusCode() / 100 == 2) {
+            return json.path("sid").asText();
+        }
+        throw new WhatsAppSendException(response.statusCode(),
+                parseRetryAfter(response.headers().firstValue("Retry-After").orElse(null)),
+                "Twilio error " + response.statusCode() + ": " + json.path("message").asText(response.body()));
+    }
+
+    private JsonNode readJson(String body) {
+        try {
+            return objectMapper.readTree(body);
+        } catch (IOException e) {
+            return objectMapper.createObjectNode();
+        }
+    }
+
+    /**
+     * Retry-After is either a number of seconds or an HTTP date
+     */
+    private Duration parseRetryAfter(String retryAfter) {
+        if (retryAfter == null || retryAfter.isBlank()) {
+            return null;
+        }
+        try {
+            return Duration.ofSeconds(Long.parseLong(retryAfter.trim()));
+        } catch (NumberFormatException e) {
+            try {
+                Duration delay = Duration.between(ZonedDateTime.now(),
+                        ZonedDateTime.parse(retryAfter.trim(), DateTimeFormatter.RFC_1123_DATE_TIME));
+                return delay.isNegative() ? Duration.ZERO : delay;
+            } catch (DateTimeParseException ignored) {
+                return null;
+            }
+        }
+    }
+
+    private static String encode(String value) {
+        return URLEncoder.encode(value, StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,12 @@
+package com.bakery.warehouse.service;
+
+/**
+ * A notification that cannot go out until someone fixes the data behind it (e.g. a missing address):
+ * trying again later would fail the same way
+ */
+public class UndeliverableException extends RuntimeException {
+
+    public UndeliverableException(String message) {
+        super(message);
+    }
+}
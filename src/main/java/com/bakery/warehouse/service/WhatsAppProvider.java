@@ -0,0 +1,24 @@
+package com.bakery.warehouse.service;
+
+/**
+ * Service that delivers WhatsApp messages (Twilio, or the in-process stub), chosen by app.whatsapp.provider.
+ * Called concurrently by WhatsAppService, which does the pacing and the retries.
+ */
+public interface WhatsAppProvider {
+
+    /**
+     * Send one message
+     *
+     * @param to recipient phone number (e.g. +39...)
+     * @return the provider's id of the message
+     * @throws WhatsAppSendException if the provider refused the message or could not be reached
+     */
+    String send(String to, String body);
+
+    /**
+     * False when the credentials are missing: messages are then skipped, not failed
+     */
+    default boolean isConfigured() {
+        return true;
+    }
+}
@@ -0,0 +1,48 @@
+package com.bakery.warehouse.service;
+
+import lombok.Getter;
+
+import java.time.Duration;
+
+/**
+ * A WhatsApp message the provider refused (status is the HTTP status), could not be reached for
+ * (NOT_CONNECTED) or did not answer once the request was out (NO_RESPONSE)
+ */
+@Getter
+public class WhatsAppSendException extends RuntimeException {
+
+    // Connecting failed: the request never left, sending it again cannot duplicate it
+    public static final int NOT_CONNECTED = 0;
+
+    // The request may have reached the provider: it may already be delivered
+    public static final int NO_RESPONSE = -1;
+
+    private final int status;
+
+    // How long the provider asked to wait before trying again (Retry-After), if it said
+    private final Duration retryAfter;
+
+    public WhatsAppSendException(int status, Duration retryAfter, String message) {
+        super(message);
+        this.status = status;
+        this.retryAfter = retryAfter;
+    }
+
+    public WhatsAppSendException(int status, String message, Throwable cause) {
+        super(message, cause);
+        this.status = status;
+        this.retryAfter = null;
+    }
+
+    public boolean isRateLimited() {
+        return status == 429;
+    }
+
+    /**
+     * Rate limited, a server error or not reached at all: the same message may go through later.
+     * NO_RESPONSE is not retryable, since sending again could deliver the message twice.
+     */
+    public boolean isRetryable() {
+        return status == NOT_CONNECTED || isRateLimited() || status >= 500;
+    }
+}
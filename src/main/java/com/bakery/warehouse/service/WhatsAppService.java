@@ -1,78 +1,223 @@
 package com.bakery.warehouse.service;
 
 import com.bakery.warehouse.entity.Shipment;
-import com.twilio.Twilio;
-import com.twilio.rest.api.v2010.account.Message;
-import com.twilio.type.PhoneNumber;
-import lombok.RequiredArgsConstructor;
+import com.bakery.warehouse.entity.ShipmentNotification;
+import jakarta.annotation.PreDestroy;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
 
-import jakarta.annotation.PostConstruct;
+import java.time.Duration;
 import java.time.format.DateTimeFormatter;
-
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Sends the shipment WhatsApp messages through the configured WhatsAppProvider (app.whatsapp.provider).
+ * Sends run on a pool of app.whatsapp.max-in-flight threads, so the shop and driver messages of a shipment,
+ * and those of concurrent notifications, are in flight together; a token bucket shared by all of them
+ * keeps to app.whatsapp.rate messages per second (bursts of app.whatsapp.burst).
+ * A message refused with 429 or 5xx, or left unanswered, is tried again up to app.whatsapp.max-retries times,
+ * after the provider's Retry-After if it gives one; a 429 also pauses every other send for that long.
+ * Longer outages are left to the notification retries (NotificationDispatcher).
+ */
 @Service
-@RequiredArgsConstructor
 public class WhatsAppService {
 
-    @Value("${app.twilio.account-sid}")
-    private String accountSid;
+    private static final DateTimeFormatter DATE_FORMAT = DateTimeFormatter.ofPattern("dd/MM/yyyy");
+
+    private final WhatsAppProvider provider;
+    private final TokenBucket rateLimit;
+    private final ThreadPoolExecutor executor;
+    private final int maxRetries;
+    private final Duration retryDelay;
+    private final Duration maxRetryAfter;
+
+    private final AtomicLong sent = new AtomicLong();
+    private final AtomicLong failed = new AtomicLong();
+    private final AtomicLong retries = new AtomicLong();
+    private final AtomicLong rateLimited = new AtomicLong();
+    private final AtomicLong sendNanos = new AtomicLong();
+    private final AtomicLong maxSendNanos = new AtomicLong();
+
+    public WhatsAppService(
+            WhatsAppProvider provider,
+            @Value("${app.whatsapp.rate:10}") double rate,
+            @Value("${app.whatsapp.burst:20}") int burst,
+            @Value("${app.whatsapp.max-in-flight:8}") int maxInFlight,
+            @Value("${app.whatsapp.max-retries:3}") int maxRetries,
+            @Value("${app.whatsapp.retry-delay:1000}") long retryDelayMillis,
+            @Value("${app.whatsapp.max-retry-after:60000}") long maxRetryAfterMillis) {
+        this.provider = provider;
+        this.rateLimit = new TokenBucket(rate, burst);
+        this.maxRetries = maxRetries;
+        this.retryDelay = Duration.ofMillis(retryDelayMillis);
+        this.maxRetryAfter = Duration.ofMillis(maxRetryAfterMillis);
+
+        AtomicInteger threadCount = new AtomicInteger();
+        // Unbounded queue: callers wait for their sends, so they bound it themselves
+        this.executor = new ThreadPoolExecutor(maxInFlight, maxInFlight, 0L, TimeUnit.MILLISECONDS,
+                new LinkedBlockingQueue<>(),
+                runnable -> {
+                    Thread thread = new Thread(runnable, "whatsapp-send-" + threadCount.incrementAndGet());
+                    thread.setDaemon(true);
+                    return thread;
+                });
+    }
+
+    /**
+     * Send the shipment message to the shop and, if they have a number, the driver, both at once.
+     * Both sends are awaited before reporting a failure, and the error says which recipient it was,
+     * so whoever calls this again knows the other one already has the message.
+     */
+    public void sendShipmentWhatsApp(Shipment shipment) {
+        if (!provider.isConfigured()) {
+            System.out.println("Twilio not configured, skipping WhatsApp notification");
+            return;
+        }
+
+        String shopWhatsApp = whatsAppNumber(shipment, ShipmentNotification.Recipient.SHOP);
 
-    @Value("${app.twilio.auth-token}")
-    private String authToken;
+        String messageBody = buildWhatsAppMessage(shipment);
 
-    @Value("${app.twilio.whatsapp-from}")
-    private String whatsappFrom;
+        Map<ShipmentNotification.Recipient, Future<String>> messages = new EnumMap<>(ShipmentNotification.Recipient.class);
+        messages.put(ShipmentNotification.Recipient.SHOP, executor.submit(() -> send(shopWhatsApp, messageBody)));
+        if (shipment.getDriver() != null && shipment.getDriver().getWhatsappNumber() != null) {
+            String driverWhatsApp = shipment.getDriver().getWhatsappNumber();
+            messages.put(ShipmentNotification.Recipient.DRIVER, executor.submit(() -> send(driverWhatsApp, messageBody)));
+        }
 
-    @PostConstruct
-    public void init() {
-        if (accountSid != null && !accountSid.startsWith("your-") && authToken != null && !authToken.startsWith("your-")) {
-            Twilio.init(accountSid, authToken);
+        List<String> delivered = new ArrayList<>();
+        List<String> failures = new ArrayList<>();
+        RuntimeException firstFailure = null;
+        for (Map.Entry<ShipmentNotification.Recipient, Future<String>> message : messages.entrySet()) {
+            String recipient = message.getKey().name().toLowerCase();
+            try {
+                System.out.println("WhatsApp sent to " + recipient + ": " + await(message.getValue()));
+                delivered.add(recipient);
+            } catch (RuntimeException e) {
+                Throwable cause = e.getCause() != null ? e.getCause() : e;
+                failures.add(recipient + " (" + cause.getMessage() + ")");
+                if (firstFailure == null) {
+                    firstFailure = e;
+                }
+            }
+        }
+        if (firstFailure != null) {
+            String message = "WhatsApp not sent to " + String.join(", ", failures);
+            if (!delivered.isEmpty()) {
+                message += "; sent to " + String.join(", ", delivered);
+            }
+            throw new RuntimeException(message, firstFailure);
         }
     }
 
-    public void sendShipmentWhatsApp(Shipment shipment) {
-        if (!isTwilioConfigured()) {
+    /**
+     * Send the shipment message to one recipient only (the outbox keeps a record per recipient)
+     */
+    public void sendShipmentWhatsApp(Shipment shipment, ShipmentNotification.Recipient recipient) {
+        if (!provider.isConfigured()) {
             System.out.println("Twilio not configured, skipping WhatsApp notification");
             return;
         }
 
-        String shopWhatsApp = shipment.getShop().getWhatsappNumber();
-        if (shopWhatsApp == null || shopWhatsApp.isEmpty()) {
-            throw new RuntimeException("Shop WhatsApp number not configured");
-        }
-
+        String to = whatsAppNumber(shipment, recipient);
         String messageBody = buildWhatsAppMessage(shipment);
 
-        try {
-            Message message = Message.creator(
-                    new PhoneNumber("whatsapp:" + shopWhatsApp),
-                    new PhoneNumber(whatsappFrom),
-                    messageBody
-            ).create();
-
-            System.out.println("WhatsApp sent: " + message.getSid());
-
-            if (shipment.getDriver() != null && shipment.getDriver().getWhatsappNumber() != null) {
-                Message driverMessage = Message.creator(
-                        new PhoneNumber("whatsapp:" + shipment.getDriver().getWhatsappNumber()),
-                        new PhoneNumber(whatsappFrom),
-                        messageBody
-                ).create();
-                System.out.println("WhatsApp sent to driver: " + driverMessage.getSid());
+        String sid = await(executor.submit(() -> send(to, messageBody)));
+        System.out.println("WhatsApp sent to " + recipient.name().toLowerCase() + ": " + sid);
+    }
+
+    /**
+     * Messages sent and refused since startup; times in milliseconds
+     */
+    public Map<String, Object> stats() {
+        long sentCount = sent.get();
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("sent", sentCount);
+        stats.put("failed", failed.get());
+        stats.put("retries", retries.get());
+        stats.put("rateLimited", rateLimited.get());
+        stats.put("avgSendMillis", sentCount == 0 ? 0.0 : toMillis(sendNanos.get() / sentCount));
+        stats.put("maxSendMillis", toMillis(maxSendNanos.get()));
+        stats.put("inFlight", executor.getActiveCount());
+        stats.put("queued", executor.getQueue().size());
+        return stats;
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        executor.shutdownNow();
+    }
+
+    private String send(String to, String body) throws InterruptedException {
+        for (int attempt = 0; ; attempt++) {
+            rateLimit.acquire();
+            long start = System.nanoTime();
+            try {
+                String sid = provider.send(to, body);
+                record(System.nanoTime() - start);
+                return sid;
+            } catch (WhatsAppSendException e) {
+                if (e.isRateLimited()) {
+                    rateLimited.incrementAndGet();
+                }
+                Duration delay = e.getRetryAfter() != null
+                        ? e.getRetryAfter()
+                        : retryDelay.multipliedBy(1L << Math.min(attempt, 20));
+                if (!e.isRetryable() || attempt >= maxRetries || delay.compareTo(maxRetryAfter) > 0) {
+                    failed.incrementAndGet();
+                    throw e;
+                }
+                retries.incrementAndGet();
+                if (e.isRateLimited()) {
+                    // Over the provider's limit: everyone waits, the next acquire included
+                    rateLimit.pause(delay);
+                } else {
+                    Thread.sleep(delay.toMillis());
+                }
             }
+        }
+    }
 
-        } catch (Exception e) {
-            throw new RuntimeException("Failed to send WhatsApp: " + e.getMessage(), e);
+    private String await(Future<String> message) {
+        try {
+            return message.get();
+        } catch (ExecutionException e) {
+            throw new RuntimeException("Failed to send WhatsApp: " + e.getCause().getMessage(), e.getCause());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException("Interrupted while sending WhatsApp", e);
         }
     }
 
+    private String whatsAppNumber(Shipment shipment, ShipmentNotification.Recipient recipient) {
+        String number = switch (recipient) {
+            case SHOP -> shipment.getShop().getWhatsappNumber();
+            case DRIVER -> shipment.getDriver() != null ? shipment.getDriver().getWhatsappNumber() : null;
+        };
+        if (number == null || number.isEmpty()) {
+            throw new UndeliverableException(recipient == ShipmentNotification.Recipient.SHOP
+                    ? "Shop WhatsApp number not configured"
+                    : "Driver WhatsApp number not configured");
+        }
+        return number;
+    }
+
     private String buildWhatsAppMessage(Shipment shipment) {
         StringBuilder message = new StringBuilder();
         message.append("*Documento di Trasporto*\n\n");
         message.append("Numero: ").append(shipment.getShipmentNumber()).append("\n");
-        message.append("Data: ").append(shipment.getShipmentDate()
-                .format(DateTimeFormatter.ofPattern("dd/MM/yyyy"))).append("\n");
+        message.append("Data: ").append(shipment.getShipmentDate().format(DATE_FORMAT)).append("\n");
         message.append("Negozio: ").append(shipment.getShop().getName()).append("\n");
         message.append("Indirizzo: ").append(shipment.getShop().getAddress())
                 .append(", ").append(shipment.getShop().getCity()).append("\n");
@@ -86,9 +231,13 @@ public class WhatsAppService {
         return message.toString();
     }
 
-    private boolean isTwilioConfigured() {
-        return accountSid != null && !accountSid.startsWith("your-") &&
-                authToken != null && !authToken.startsWith("your-") &&
-                whatsappFrom != null && !whatsappFrom.startsWith("whatsapp:+1415");
+    private void record(long nanos) {
+        sent.incrementAndGet();
+        sendNanos.addAndGet(nanos);
+        maxSendNanos.accumulateAndGet(nanos, Math::max);
+    }
+
+    private static double toMillis(long nanos) {
+        return Math.round(nanos / 10_000.0) / 100.0;
     }
 }
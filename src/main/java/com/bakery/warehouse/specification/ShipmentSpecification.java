@@ -50,4 +50,18 @@ public class ShipmentSpecification {
             return criteriaBuilder.and(predicates.toArray(new Predicate[0]));
         };
     }
+
+    /**
+     * Keyset (seek) condition for the (shipmentDate DESC, id DESC) ordering:
+     * only shipments that come after the given position
+     */
+    public static Specification<Shipment> after(LocalDate shipmentDate, Long id) {
+        return (root, query, criteriaBuilder) -> criteriaBuilder.or(
+                criteriaBuilder.lessThan(root.get("shipmentDate"), shipmentDate),
+                criteriaBuilder.and(
+                        criteriaBuilder.equal(root.get("shipmentDate"), shipmentDate),
+                        criteriaBuilder.lessThan(root.get("id"), id)
+                )
+        );
+    }
 }
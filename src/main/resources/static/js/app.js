@@ -283,8 +283,7 @@ function displayShipments(shipments) {
                 </thead>
                 <tbody>
                     ${shipments.map(s => {
-                        const shipmentTotal = s.items ? s.items.reduce((sum, item) =>
-                            sum + (item.totalPrice || (item.quantity * item.unitPrice)), 0) : 0;
+                        const shipmentTotal = parseFloat(s.shipmentTotal ?? 0);
 
                         return `
                         <tr>
@@ -642,6 +641,13 @@ function calculateShipmentTotals(shipments) {
     let totalReturnsValue = 0;
 
     shipments.forEach(shipment => {
+        // Summary rows already carry their totals computed by the backend
+        if (shipment.shipmentTotal !== undefined) {
+            totalShipmentValue += parseFloat(shipment.shipmentTotal ?? 0);
+            totalReturnsValue += Math.abs(parseFloat(shipment.returnTotal ?? 0));
+            return;
+        }
+
         if (shipment.items) {
             shipment.items.forEach(item => {
                 const itemTotal = parseFloat(
@@ -798,14 +804,9 @@ function displayShipmentsWithPagination(shipments, paginationInfo) {
                 </thead>
                 <tbody>
                     ${shipments.map(s => {
-                        // Calculate shipment items and returns separately
-                        const shipmentItems = s.items ? s.items.filter(item => item.itemType === 'SHIPMENT') : [];
-                        const returnItems = s.items ? s.items.filter(item => item.itemType === 'RETURN') : [];
-
-                        const shipmentTotal = shipmentItems.reduce((sum, item) =>
-                            sum + (item.totalPrice || (item.quantity * item.unitPrice)), 0);
-                        const returnTotal = returnItems.reduce((sum, item) =>
-                            sum + (item.totalPrice || (item.quantity * item.unitPrice)), 0);
+                        // Shipment items and returns totals calculated by the backend
+                        const shipmentTotal = parseFloat(s.shipmentTotal ?? 0);
+                        const returnTotal = parseFloat(s.returnTotal ?? 0);
 
                         return `
                         <tr onclick="viewShipment(${s.id})" style="cursor: pointer;" title="Clicca per visualizzare i dettagli">
@@ -814,9 +815,9 @@ function displayShipmentsWithPagination(shipments, paginationInfo) {
                             <td>${s.shop?.name || '-'}</td>
                             <td>${s.driver?.fullName || '-'}</td>
                             <td><span class="badge status-${s.status}">${translateStatus(s.status)}</span></td>
-                            <td>${shipmentItems.length}</td>
+                            <td>${s.shipmentItemCount ?? 0}</td>
                             <td>€ ${shipmentTotal.toFixed(2)}</td>
-                            <td>${returnItems.length}</td>
+                            <td>${s.returnItemCount ?? 0}</td>
                             <td>€ ${returnTotal.toFixed(2)}</td>
                             <td onclick="event.stopPropagation();">
                                 <div class="btn-group btn-group-sm" role="group">
@@ -936,6 +937,7 @@ async function editShop(id) {
         document.getElementById('shopWhatsApp').value = shop.whatsappNumber || '';
         document.getElementById('shopContact').value = shop.contactPerson || '';
         document.getElementById('shopNotes').value = shop.notes || '';
+        document.getElementById('shopEmailDigest').checked = shop.emailDigest === true;
 
         document.getElementById('shopModalLabel').textContent = 'Modifica Negozio';
         showModal('shopModal');
@@ -1005,6 +1007,7 @@ document.getElementById('shopForm')?.addEventListener('submit', async (e) => {
         whatsappNumber: document.getElementById('shopWhatsApp').value,
         contactPerson: document.getElementById('shopContact').value,
         notes: document.getElementById('shopNotes').value,
+        emailDigest: document.getElementById('shopEmailDigest').checked,
         active: true
     };
 
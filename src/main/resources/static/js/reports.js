@@ -372,17 +372,13 @@ function displayShipmentsTable(shipments) {
     shipmentsTable.clear();
 
     filteredShipments.forEach(shipment => {
-        // Calculate shipment items totals
-        const shipmentItems = shipment.items.filter(item => item.itemType === 'SHIPMENT');
-        const numProducts = shipmentItems.length;
-        const totalProducts = shipmentItems.reduce((sum, item) =>
-            sum + parseFloat(item.totalPrice || 0), 0);
-
-        // Calculate return items totals
-        const returnItems = shipment.items.filter(item => item.itemType === 'RETURN');
-        const numReturns = returnItems.length;
-        const totalReturns = returnItems.reduce((sum, item) =>
-            sum + parseFloat(item.totalPrice || 0), 0);
+        // Shipment items totals (calculated by the backend)
+        const numProducts = shipment.shipmentItemCount || 0;
+        const totalProducts = parseFloat(shipment.shipmentTotal || 0);
+
+        // Return items totals (calculated by the backend)
+        const numReturns = shipment.returnItemCount || 0;
+        const totalReturns = parseFloat(shipment.returnTotal || 0);
 
         // Calculate net total
         const netTotal = totalProducts - totalReturns;